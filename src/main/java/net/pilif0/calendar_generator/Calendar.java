@@ -1,10 +1,22 @@
 package net.pilif0.calendar_generator;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.TimeZone;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Represents an iCalendar file
@@ -13,24 +25,67 @@ import java.util.TimeZone;
  * @version 1.0
  */
 public class Calendar {
-    /** The contents of the empty file */
-    public static final String EMPTY_FILE = "BEGIN:VCALENDAR\n" +
-            "PRODID:-//Filip Smola//Calendar Generator//EN\n" +
-            "VERSION:2.0\n" +
-            "CALSCALE:GREGORIAN\n" +
-            "METHOD:PUBLISH\n" +
-            "X-WR-CALNAME:Generated calendar\n" +
-            "X-WR-TIMEZONE:" + TimeZone.getDefault().getID() +
-            "END:VCALENDAR";
+    /**
+     * The format of the saved file
+     */
+    public enum Format {
+        /** iCalendar text (RFC 5545) */
+        ICALENDAR,
+        /** jCal, iCalendar as JSON (RFC 7265, can not be read back) */
+        JCAL;
+
+        /** The extensions of jCal files */
+        public static final String[] JCAL_EXTENSIONS = {".json", ".jcal"};
+
+        /**
+         * Finds the format of the file by its extension (ignoring the compression extension)
+         *
+         * @param file The file
+         * @return The format of the file
+         */
+        public static Format of(Path file){
+            String name = file.getFileName().toString().toLowerCase();
+            if(name.endsWith(COMPRESSED_EXTENSION)){
+                name = name.substring(0, name.length() - COMPRESSED_EXTENSION.length());
+            }
+            for(String extension : JCAL_EXTENSIONS){
+                if(name.endsWith(extension)){
+                    return JCAL;
+                }
+            }
+            return ICALENDAR;
+        }
+    }
+
+    /** The extension of compressed files */
+    public static final String COMPRESSED_EXTENSION = ".gz";
+    /** The size of the compression buffers */
+    private static final int COMPRESSION_BUFFER_SIZE = 64 * 1024;
+    /** The contents of the empty file (in the system default time zone) */
+    public static final String EMPTY_FILE = emptyFile(ZoneId.systemDefault());
 
     /** The path to the file */
     public final Path path;
     /** The file prefix (calendar info, timezone, ...) */
     public final String prefix;
-    /** The body of the file (event blocks) */
+    /** The body of the file (event blocks, {@code null} until read when opened through the index) */
     private String events;
+    /** The events kept as objects since a jCal save (part of the body, written after {@code events}) */
+    private final List<Event> bodyEvents = new ArrayList<>();
+    /** The event blocks added since the last save */
+    private final StringBuilder added = new StringBuilder();
+    /** The events added since the last save (rendered only once written, after {@code added}) */
+    private final List<Event> addedEvents = new ArrayList<>();
     /** The file suffix (calendar end) */
     public final String suffix;
+    /** The time zone definitions of the prefix replaced by the ones to add */
+    private final List<String> replacedDefinitions = new ArrayList<>();
+    /** The time zone definitions to add (by time zone) */
+    private final Map<ZoneId, ZoneOffsets> timezones = new LinkedHashMap<>();
+    /** The sidecar index of the file ({@code null} when not opened through the index) */
+    private CalendarIndex index;
+    /** The sinks collecting events from other threads by their order (drained on save, at most one per order) */
+    private final Map<EventSink.Order, EventSink> sinks = new EnumMap<>(EventSink.Order.class);
 
     /**
      * Reads a calendar from a iCalendar file
@@ -38,6 +93,16 @@ public class Calendar {
      * @param file The file to read
      */
     public Calendar(Path file){
+        this(file.toAbsolutePath(), read(file));
+    }
+
+    /**
+     * Reads the whole iCalendar file for parsing
+     *
+     * @param file The file to read
+     * @return The contents of the file
+     */
+    private static String read(Path file){
         //Check the path is a file
         if(!Files.exists(file)){
             throw new IllegalArgumentException("The calendar file does not exist.");
@@ -45,13 +110,13 @@ public class Calendar {
         if(Files.isDirectory(file)){
             throw new IllegalArgumentException("The calendar file is not a file.");
         }
-
-        //Keep the absolute path
-        path = file.toAbsolutePath();
+        if(Format.of(file) != Format.ICALENDAR){
+            throw new IllegalArgumentException("The calendar file is not an iCalendar file.");
+        }
 
         //DEBUG: print read note
-        if(Launcher.debug){
-            System.out.printf("[DEBUG] Reading calendar from \'%s\'\n", path);
+        if(Main.debug){
+            System.out.printf("[DEBUG] Reading calendar from \'%s\'\n", file.toAbsolutePath());
         }
 
         //Read the file contents
@@ -62,6 +127,18 @@ public class Calendar {
             throw new IllegalArgumentException("The calendar file could not be read.");
         }
 
+        return contents;
+    }
+
+    /**
+     * Parses a calendar from the contents of an iCalendar file
+     *
+     * @param path The absolute path to the file
+     * @param contents The contents of the file
+     */
+    private Calendar(Path path, String contents){
+        this.path = path;
+
         //Separate the prefix (before first event or end of calendar)
         int prefixEnd = contents.indexOf("BEGIN:VEVENT");
         if(prefixEnd == -1){
@@ -101,7 +178,7 @@ public class Calendar {
         suffix = contents.substring(suffixStart);
 
         //DEBUG: print prefix and suffix (skip events because that is usually long)
-        if(Launcher.debug){
+        if(Main.debug){
             String msg = (new StringBuilder("[DEBUG] iCalendar file read:")).append(System.lineSeparator())
                     .append(" - Prefix:").append(System.lineSeparator())
                     .append(prefix).append(System.lineSeparator())
@@ -112,6 +189,253 @@ public class Calendar {
         }
     }
 
+    /**
+     * Prepares a calendar opened through its index (the body is read only when needed)
+     *
+     * @param index The up to date index of the file
+     * @param prefix The file prefix
+     * @param suffix The file suffix
+     */
+    private Calendar(CalendarIndex index, String prefix, String suffix){
+        this.path = index.path;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.index = index;
+    }
+
+    /**
+     * Opens a calendar from an iCalendar file through its sidecar index
+     * <p>
+     * Only the prefix and suffix are read. The index is rebuilt when missing or stale. Saving appends the added events
+     * in place while the file stays unchanged. Compressed files can not be indexed and are read whole.
+     *
+     * @param file The file to open
+     * @return The opened calendar
+     */
+    public static Calendar open(Path file){
+        //Compressed files have no meaningful byte offsets
+        if(isCompressed(file)){
+            return new Calendar(file);
+        }
+
+        //Check the path is a file
+        if(!Files.exists(file)){
+            throw new IllegalArgumentException("The calendar file does not exist.");
+        }
+        if(Files.isDirectory(file)){
+            throw new IllegalArgumentException("The calendar file is not a file.");
+        }
+        if(Format.of(file) != Format.ICALENDAR){
+            throw new IllegalArgumentException("The calendar file is not an iCalendar file.");
+        }
+
+        //DEBUG: print open note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Opening indexed calendar from '%s'\n", file.toAbsolutePath());
+        }
+
+        try {
+            //Find the index
+            CalendarIndex index = CalendarIndex.open(file);
+
+            //Read the prefix and suffix
+            String prefix = readRange(index.path, 0, index.eventsStart);
+            String suffix = readRange(index.path, index.eventsEnd, index.size);
+
+            return new Calendar(index, prefix, suffix);
+        } catch (IOException e) {
+            //DEBUG: print message
+            if(Main.debug) {
+                System.out.printf("[DEBUG] Calendar file could not be read (%s).\n", e.getLocalizedMessage());
+            }
+            throw new IllegalArgumentException("The calendar file could not be read.");
+        }
+    }
+
+    /**
+     * Reads a byte range of the file into a string
+     *
+     * @param file The file to read
+     * @param from The range start (inclusive)
+     * @param to The range end (exclusive)
+     * @return The contents of the range
+     * @throws IOException When the file could not be read
+     */
+    private static String readRange(Path file, long from, long to) throws IOException {
+        //Strings are indexed by int, a larger range has to be streamed instead
+        if(to - from > Integer.MAX_VALUE - 8){
+            throw new IOException("The range is too large to be read at once.");
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+            byte[] contents = new byte[(int) (to - from)];
+            in.seek(from);
+            in.readFully(contents);
+            return new String(contents, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Streams a byte range of the file into the writer (for ranges too large to be kept in a string)
+     *
+     * @param file The file to read
+     * @param from The range start (inclusive)
+     * @param to The range end (exclusive)
+     * @param out The writer to write to
+     * @throws IOException When the file could not be read or the writer written to
+     */
+    private static void copyRange(Path file, long from, long to, Writer out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file).position(from)) {
+            //Stop reading at the range end
+            InputStream bounded = new FilterInputStream(Channels.newInputStream(channel)) {
+                private long left = to - from;
+
+                @Override
+                public int read() throws IOException {
+                    if(left <= 0){
+                        return -1;
+                    }
+                    left--;
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if(left <= 0){
+                        return -1;
+                    }
+                    int read = super.read(b, off, (int) Math.min(len, left));
+                    if(read > 0){
+                        left -= read;
+                    }
+                    return read;
+                }
+            };
+
+            Reader in = new InputStreamReader(new BufferedInputStream(bounded, COMPRESSION_BUFFER_SIZE), StandardCharsets.UTF_8);
+            char[] buffer = new char[COMPRESSION_BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Checks the file did not change since the index was built (the body is read at the indexed offsets)
+     *
+     * @throws IOException When the file changed
+     */
+    private void checkCurrent() throws IOException {
+        if(!index.isCurrent()){
+            throw new IOException("The calendar file changed since it was opened.");
+        }
+    }
+
+    /**
+     * Returns the body of the file, reading it through the index when not read yet
+     *
+     * @return The body of the file
+     */
+    private String getEvents(){
+        if(events == null){
+            try {
+                checkCurrent();
+                events = readRange(path, index.eventsStart, index.eventsEnd);
+            } catch (IOException e) {
+                throw new UncheckedIOException("The calendar body could not be read.", e);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Finds the event block with the UID
+     *
+     * @param uid The event UID
+     * @return The event block or {@code null} when not found
+     */
+    public String findEntry(String uid){
+        //Case: indexed event, read just the block
+        if(index != null && index.isCurrent()){
+            CalendarIndex.Entry entry = index.find(uid);
+            if(entry == null){
+                return findAdded(uid);
+            }
+            String block;
+            try {
+                block = readRange(path, entry.offset, entry.offset + entry.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException("The calendar entry could not be read.", e);
+            }
+
+            //Check the block (an edit keeping the size and modification time is not noticed by the index)
+            if(!block.startsWith("BEGIN:VEVENT") || !block.endsWith("END:VEVENT") || findEntry(block, uid) == null){
+                throw new UncheckedIOException(new IOException("The calendar file changed since it was opened."));
+            }
+            return block;
+        }
+
+        //Case: not indexed, search the text and the events
+        String result = findEntry(getEvents(), uid);
+        if(result == null){
+            result = findEntry(bodyEvents, uid);
+        }
+        return (result != null) ? result : findAdded(uid);
+    }
+
+    /**
+     * Finds the event block with the UID among the events added since the last save
+     *
+     * @param uid The event UID
+     * @return The event block or {@code null} when not found
+     */
+    private String findAdded(String uid){
+        String result = findEntry(added, uid);
+        return (result != null) ? result : findEntry(addedEvents, uid);
+    }
+
+    /**
+     * Finds the event with the UID and renders its block
+     *
+     * @param events The events to search
+     * @param uid The event UID
+     * @return The event block or {@code null} when not found
+     */
+    private static String findEntry(List<Event> events, String uid){
+        for(Event e : events){
+            if(uid.equals(e.uid)){
+                return e.toEntry();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the event block with the UID in the text
+     *
+     * @param text The text to search
+     * @param uid The event UID
+     * @return The event block or {@code null} when not found
+     */
+    private static String findEntry(CharSequence text, String uid){
+        String body = text.toString();
+        int i = body.indexOf("UID:" + uid);
+        while(i != -1){
+            //Check the whole value matched
+            int lineEnd = i + 4 + uid.length();
+            if(lineEnd == body.length() || body.charAt(lineEnd) == '\n' || body.charAt(lineEnd) == '\r'){
+                int start = body.lastIndexOf("BEGIN:VEVENT", i);
+                int end = body.indexOf("END:VEVENT", i);
+                if(start != -1 && end != -1){
+                    return body.substring(start, end + 10);
+                }
+            }
+            i = body.indexOf("UID:" + uid, i + 1);
+        }
+        return null;
+    }
+
     /**
      * Reads the file into a a string
      *
@@ -119,33 +443,251 @@ public class Calendar {
      * @return The contents or {@code null} when an error occurred
      */
     private static String readFile(Path file){
-        try {
-            return new String(Files.readAllBytes(file));
+        try (InputStream in = openInput(file)) {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buffer = new byte[COMPRESSION_BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                contents.write(buffer, 0, read);
+            }
+            return new String(contents.toByteArray(), StandardCharsets.UTF_8);
         } catch (IOException e) {
             //DEBUG: print message
-            if(Launcher.debug) {
+            if(Main.debug) {
                 System.out.printf("[DEBUG] Calendar file could not be read (%s).\n", e.getLocalizedMessage());
             }
             return null;
         }
     }
 
+    /**
+     * Checks whether the file is compressed (by its extension)
+     *
+     * @param file The file to check
+     * @return {@code true} when compressed, {@code false} otherwise
+     */
+    public static boolean isCompressed(Path file){
+        return file.getFileName().toString().toLowerCase().endsWith(COMPRESSED_EXTENSION);
+    }
+
+    /**
+     * Opens the file for reading, decompressing on the fly when compressed
+     *
+     * @param file The file to read
+     * @return The stream of the (decompressed) contents
+     * @throws IOException When the file could not be opened
+     */
+    public static InputStream openInput(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return isCompressed(file) ? new GZIPInputStream(in, COMPRESSION_BUFFER_SIZE) : new BufferedInputStream(in);
+    }
+
+    /**
+     * Opens the file for writing, compressing on the fly when compressed (the file is truncated)
+     *
+     * @param file The file to write
+     * @return The writer of the (uncompressed) contents
+     * @throws IOException When the file could not be opened
+     */
+    public static Writer openOutput(Path file) throws IOException {
+        OutputStream out = Files.newOutputStream(file);
+        if(isCompressed(file)){
+            out = new GZIPOutputStream(out, COMPRESSION_BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Generates the contents of an empty iCalendar file
+     *
+     * @param zone The calendar time zone
+     * @return The contents of the empty file
+     */
+    public static String emptyFile(ZoneId zone){
+        return emptyFile(zone, "Generated calendar");
+    }
+
+    /**
+     * Generates the contents of an empty iCalendar file
+     *
+     * @param zone The calendar time zone
+     * @param name The calendar name
+     * @return The contents of the empty file
+     */
+    public static String emptyFile(ZoneId zone, String name){
+        return "BEGIN:VCALENDAR\n" +
+                "PRODID:-//Filip Smola//Calendar Generator//EN\n" +
+                "VERSION:2.0\n" +
+                "CALSCALE:GREGORIAN\n" +
+                "METHOD:PUBLISH\n" +
+                "X-WR-CALNAME:" + name + "\n" +
+                "X-WR-TIMEZONE:" + zone.getId() + "\n" +
+                "END:VCALENDAR";
+    }
+
     /**
      * Generates the iCalendar file contents
      *
      * @return The iCalendar file contents
      */
     public String export(){
-        return prefix + events + "\n" + suffix;
+        StringWriter result = new StringWriter();
+        try {
+            write(result);
+        } catch (IOException e) {
+            //Writing to a string does not fail
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes the iCalendar file contents part by part (without joining them first)
+     *
+     * @param out The writer to write to
+     * @throws IOException When the contents could not be written (or the file changed since opened through its index)
+     */
+    public void write(Writer out) throws IOException {
+        //Write the prefix without the replaced time zone definitions
+        String head = prefix;
+        for(String definition : replacedDefinitions){
+            head = head.replace(definition, "");
+        }
+        out.write(head);
+        for(ZoneOffsets z : timezones.values()){
+            out.write(z.toDefinition());
+            out.write("\n");
+        }
+        if(events == null && index != null){
+            //Case: body not read yet, stream it from the file (it may not fit a string)
+            checkCurrent();
+            copyRange(path, index.eventsStart, index.eventsEnd, out);
+        }else{
+            out.write(getEvents());
+        }
+        writeEvents(bodyEvents, out);
+        out.append(added);
+        writeEvents(addedEvents, out);
+        out.write("\n");
+        out.write(suffix);
+    }
+
+    /**
+     * Writes the events, straight from their properties when writing jCal (without rendering and parsing their text)
+     *
+     * @param events The events to write
+     * @param out The writer to write to
+     * @throws IOException When the events could not be written
+     */
+    private static void writeEvents(List<Event> events, Writer out) throws IOException {
+        for(Event e : events){
+            if(out instanceof JCalWriter){
+                ((JCalWriter) out).writeEvent(e);
+            }else{
+                out.write("\n");
+                out.write(e.toEntry());
+            }
+        }
     }
 
     /**
      * Adds the event to the calendar
+     * <p>
+     * When the event uses local times, a definition of its time zone is added unless the file already has one.
      *
      * @param e The event to add
      */
     public void addEvent(Event e){
-        events += "\n" + e.toEntry();
+        if(e.localTime){
+            addTimezone(e.zone);
+        }
+
+        //Fix the UID, so the event is the same however many times it is written
+        addedEvents.add((e.uid == null) ? e.withUid(e.getUID()) : e);
+    }
+
+    /**
+     * Adds an already rendered event entry to the calendar (written before the events added as objects)
+     *
+     * @param entry The event entry ({@code BEGIN:VEVENT} to {@code END:VEVENT})
+     */
+    public void addEntry(String entry){
+        added.append("\n").append(entry);
+    }
+
+    /**
+     * Opens a sink that accepts events for this calendar from any number of threads
+     * <p>
+     * The calendar itself is not thread-safe, the sink is. Its entries are added in the sink order when the calendar is
+     * saved. The calendar keeps a single sink for each order, so opening one again returns the same sink.
+     *
+     * @param order The order in which the entries are added
+     * @return The sink
+     */
+    public EventSink openSink(EventSink.Order order){
+        return sinks.computeIfAbsent(order, EventSink::new);
+    }
+
+    /**
+     * Adds a time zone definition to the calendar (merged with any definition of the same zone added before)
+     * <p>
+     * Definitions already present in the file are kept as they are.
+     *
+     * @param zone The time zone to define
+     */
+    public void addTimezone(ZoneOffsets zone){
+        String existing = findDefinition(zone.zone.getId());
+        if(existing != null){
+            //Case: defined in the file over the window
+            if(zone.isCoveredBy(existing)){
+                return;
+            }
+
+            //Case: defined in the file over a different window, replace the definition
+            if(!replacedDefinitions.contains(existing)){
+                replacedDefinitions.add(existing);
+                zone = zone.merge(ZoneOffsets.ofDefinition(zone.zone, existing));
+
+                //DEBUG: print replacement note
+                if(Main.debug){
+                    System.out.printf("[DEBUG] Replacing the definition of time zone \'%s\' in \'%s\'\n", zone.zone, path);
+                }
+            }
+        }
+
+        timezones.merge(zone.zone, zone, ZoneOffsets::merge);
+    }
+
+    /**
+     * Finds the definition of the time zone in the file prefix
+     *
+     * @param id The time zone identifier
+     * @return The definition including its line break or {@code null} when not defined
+     */
+    private String findDefinition(String id){
+        String tzid = "TZID:" + id;
+        for(int i = prefix.indexOf(tzid); i != -1; i = prefix.indexOf(tzid, i + 1)){
+            //Check the whole identifier matches
+            int idEnd = i + tzid.length();
+            if(idEnd < prefix.length() && prefix.charAt(idEnd) != '\r' && prefix.charAt(idEnd) != '\n'){
+                continue;
+            }
+
+            //Find the enclosing definition
+            int start = prefix.lastIndexOf("BEGIN:VTIMEZONE", i);
+            int end = prefix.indexOf("END:VTIMEZONE", i);
+            if(start == -1 || end == -1){
+                return null;
+            }
+            end += "END:VTIMEZONE".length();
+            if(prefix.startsWith("\r\n", end)){
+                end += 2;
+            }else if(prefix.startsWith("\n", end)){
+                end++;
+            }
+            return prefix.substring(start, end);
+        }
+        return null;
     }
 
     /**
@@ -159,6 +701,18 @@ public class Calendar {
             .forEach(this::addEvent);
     }
 
+    /**
+     * Prepares an empty calendar kept in memory (the file is not touched until saved)
+     *
+     * @param file The path to save the calendar to
+     * @param zone The calendar time zone
+     * @param name The calendar name
+     * @return The empty calendar
+     */
+    public static Calendar empty(Path file, ZoneId zone, String name){
+        return new Calendar(file.toAbsolutePath(), emptyFile(zone, name));
+    }
+
     /**
      * Creates a new empty iCalendar file at the path
      *
@@ -166,8 +720,19 @@ public class Calendar {
      * @return The {@code Calendar} instance of the file or {@code null} when an error occurred
      */
     public static Calendar createFile(Path file){
+        return createFile(file, ZoneId.systemDefault());
+    }
+
+    /**
+     * Creates a new empty iCalendar file at the path
+     *
+     * @param file The path to the new file
+     * @param zone The calendar time zone
+     * @return The {@code Calendar} instance of the file or {@code null} when an error occurred
+     */
+    public static Calendar createFile(Path file, ZoneId zone){
         //DEBUG: print creation note
-        if(Launcher.debug){
+        if(Main.debug){
             System.out.printf("[DEBUG] Creating calendar at \'%s\'\n", file);
         }
 
@@ -179,9 +744,15 @@ public class Calendar {
             return null;
         }
 
-        //Write the content
-        try {
-            Files.write(file, EMPTY_FILE.getBytes());
+        //Case: jCal can not be read back, so keep the calendar in memory and write it in that format
+        if(Format.of(file) == Format.JCAL){
+            Calendar result = empty(file, zone, "Generated calendar");
+            return result.save() ? result : null;
+        }
+
+        //Write the content (compressed when the extension says so)
+        try (Writer out = openOutput(file)) {
+            out.write(emptyFile(zone));
         } catch (IOException e) {
             System.out.printf("[ERROR] Calendar file could not be written to (%s).\n", e.getLocalizedMessage());
             return null;
@@ -194,18 +765,129 @@ public class Calendar {
     }
 
     /**
-     * Saves the iCalendar to the file
+     * Saves the iCalendar to the file in the format of its extension
      *
      * @return {@code true} on success, {@code false} on failure
      */
     public boolean save(){
-        //Write the content
+        return save(Format.of(path));
+    }
+
+    /**
+     * Saves the iCalendar to the file in the format
+     * <p>
+     * A calendar opened through its index appends the added events in place when saved as iCalendar, the file did not
+     * change since and no time zone definitions were added. Otherwise the whole file is rewritten (through a temporary
+     * file moved in place). A jCal file is converted from the text of the file while written, the events added as objects
+     * are written into it straight from their properties. It can not be read back.
+     *
+     * @param format The format to save in
+     * @return {@code true} on success, {@code false} on failure
+     */
+    public boolean save(Format format){
+        //Take the entries collected by the sinks
+        sinks.values().forEach(sink -> sink.drainTo(this));
+
+        //Render the added events into text when saving as iCalendar (the text is then kept as part of the body)
+        if(format == Format.ICALENDAR){
+            addedEvents.forEach(e -> added.append("\n").append(e.toEntry()));
+            addedEvents.clear();
+        }
+
         try {
-            Files.write(path, export().getBytes());
-        } catch (IOException e) {
+            if(format == Format.ICALENDAR && index != null && timezones.isEmpty() && index.isCurrent()){
+                //Case: append in place
+                appendInPlace();
+            }else{
+                //Case: rewrite the content
+                rewrite(format);
+            }
+        } catch (IOException | UncheckedIOException e) {
             System.out.printf("Calendar file could not be written to (%s).\n", e.getLocalizedMessage());
             return false;
         }
+
+        //The added events are now part of the body
+        if(events != null){
+            events += added;
+        }
+        added.setLength(0);
+        bodyEvents.addAll(addedEvents);
+        addedEvents.clear();
+
         return true;
     }
+
+    /**
+     * Writes the whole content into a temporary file and moves it over the file, so the file is never left partial
+     * <p>
+     * The body of a calendar opened through its index is read from the file while writing, which is only safe because
+     * the file itself is not touched until the content is complete.
+     *
+     * @param format The format to write in
+     * @throws IOException When the content could not be written or moved
+     */
+    private void rewrite(Format format) throws IOException {
+        //Keep the extensions, so the temporary file is compressed the same way
+        Path temporary = path.resolveSibling(".tmp." + path.getFileName());
+        if(format == Format.JCAL){
+            //The file will no longer hold the indexed body, so keep it in memory
+            getEvents();
+        }
+        try {
+            //Convert the content to jCal while writing when requested (compressed when the extension says so)
+            try (Writer out = (format == Format.JCAL) ? new JCalWriter(openOutput(temporary)) : openOutput(temporary)) {
+                write(out);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        if(format == Format.JCAL){
+            //The file is no longer indexable
+            index = null;
+        }else if(index != null){
+            //Rebuild the index of an indexed calendar
+            index = CalendarIndex.build(path);
+            writeIndex();
+        }
+    }
+
+    /**
+     * Writes the added events and the suffix over the suffix in the file and updates the index
+     *
+     * @throws IOException When the file could not be written to
+     */
+    private void appendInPlace() throws IOException {
+        //DEBUG: print append note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Appending to calendar '%s' at byte %d\n", path, index.eventsEnd);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            //Write over the old suffix first and only then cut off what is left of it
+            channel.position(index.eventsEnd);
+            Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1));
+            out.append(added);
+            out.write("\n");
+            out.write(suffix);
+            out.flush();
+            channel.truncate(channel.position());
+        }
+
+        index = index.appended();
+        writeIndex();
+    }
+
+    /**
+     * Persists the index (the index is only an optimisation, so failure is not fatal)
+     */
+    private void writeIndex(){
+        try {
+            index.write();
+        } catch (IOException e) {
+            System.out.printf("[ERROR] Calendar index could not be written (%s).\n", e.getLocalizedMessage());
+        }
+    }
 }
@@ -0,0 +1,455 @@
+package net.pilif0.calendar_generator;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Represents the sidecar index of an iCalendar file
+ * <p>
+ * The index keeps the byte offset, length, UID and start of each event block together with the size and modification
+ * time of the indexed file, so a large calendar can be reopened, searched and appended to without reading its body.
+ * It is stored next to the calendar file (with the {@code .idx} extension appended) and rebuilt whenever the size or
+ * modification time do not match. An edit that keeps both (same size within the same millisecond) is not detected, so
+ * callers reading a block through the index should check it still looks like an event block.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class CalendarIndex {
+    /** The extension appended to the calendar file name */
+    public static final String EXTENSION = ".idx";
+    /** The index file magic number */
+    private static final int MAGIC = 0x43474958;
+    /** The index file format version */
+    private static final int VERSION = 2;
+    /** The size of the scanning buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Represents an indexed event block
+     */
+    public static class Entry {
+        /** The byte offset of the block start ({@code BEGIN:VEVENT}) */
+        public final long offset;
+        /** The byte length of the block (up to and including {@code END:VEVENT}) */
+        public final int length;
+        /** The event UID (empty when missing) */
+        public final String uid;
+        /** The event DTSTART value (empty when missing) */
+        public final String start;
+
+        /**
+         * Constructs the entry from its information
+         */
+        public Entry(long offset, int length, String uid, String start) {
+            this.offset = offset;
+            this.length = length;
+            this.uid = uid;
+            this.start = start;
+        }
+    }
+
+    /** The path to the indexed calendar file */
+    public final Path path;
+    /** The indexed file size */
+    public final long size;
+    /** The indexed file modification time (milliseconds since epoch) */
+    public final long modified;
+    /** The byte offset of the first event block (or of the calendar end when there are no events) */
+    public final long eventsStart;
+    /** The byte offset right after the last event block (same as the start when there are no events) */
+    public final long eventsEnd;
+    /** The event blocks in file order */
+    private final List<Entry> entries;
+    /** The event blocks by UID in file order (events without a UID are left out) */
+    private final Map<String, List<Entry>> byUid = new HashMap<>();
+
+    /**
+     * Constructs the index from its information
+     */
+    private CalendarIndex(Path path, long size, long modified, long eventsStart, long eventsEnd, List<Entry> entries) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.eventsStart = eventsStart;
+        this.eventsEnd = eventsEnd;
+        this.entries = entries;
+        entries.stream()
+                .filter(e -> !e.uid.isEmpty())
+                .forEach(e -> byUid.computeIfAbsent(e.uid, k -> new ArrayList<>(1)).add(e));
+    }
+
+    /**
+     * Finds the path of the sidecar index of the calendar file
+     *
+     * @param file The calendar file
+     * @return The sidecar index path
+     */
+    public static Path sidecar(Path file){
+        return Paths.get(file.toString() + EXTENSION);
+    }
+
+    /**
+     * Opens the index of the calendar file, rebuilding and persisting it when missing or stale
+     *
+     * @param file The calendar file
+     * @return The up to date index
+     * @throws IOException When the calendar file could not be read
+     */
+    public static CalendarIndex open(Path file) throws IOException {
+        CalendarIndex result = load(file);
+
+        if(result == null){
+            result = build(file);
+
+            //Persist the rebuilt index (the index is only an optimisation, so failure is not fatal)
+            try {
+                result.write();
+            } catch (IOException e) {
+                System.out.printf("[ERROR] Calendar index could not be written (%s).\n", e.getLocalizedMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads the persisted index of the calendar file
+     *
+     * @param file The calendar file
+     * @return The index or {@code null} when missing, unreadable or stale
+     */
+    public static CalendarIndex load(Path file){
+        Path absolute = file.toAbsolutePath();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar(absolute))))) {
+            //Check the format
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                return null;
+            }
+
+            //Check the index matches the file
+            long size = in.readLong();
+            long modified = in.readLong();
+            if(size != Files.size(absolute) || modified != Files.getLastModifiedTime(absolute).toMillis()){
+                //DEBUG: print stale note
+                if(Main.debug){
+                    System.out.printf("[DEBUG] Calendar index of \'%s\' is stale\n", absolute);
+                }
+                return null;
+            }
+
+            //Read the entries
+            long eventsStart = in.readLong();
+            long eventsEnd = in.readLong();
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for(int i = 0; i < count; i++){
+                entries.add(new Entry(in.readLong(), in.readInt(), readString(in, size), readString(in, size)));
+            }
+
+            return new CalendarIndex(absolute, size, modified, eventsStart, eventsEnd, entries);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            //DEBUG: print message
+            if(Main.debug){
+                System.out.printf("[DEBUG] Calendar index could not be read (%s).\n", e.getLocalizedMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Builds the index of the calendar file by scanning it
+     *
+     * @param file The calendar file
+     * @return The index
+     * @throws IOException When the calendar file could not be read
+     */
+    public static CalendarIndex build(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+
+        //DEBUG: print build note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Building calendar index of \'%s\'\n", absolute);
+        }
+
+        //Remember the file state before scanning
+        long size = Files.size(absolute);
+        long modified = Files.getLastModifiedTime(absolute).toMillis();
+
+        //Scan the whole file
+        Scan scan = new Scan(0);
+        try (InputStream in = Files.newInputStream(absolute)) {
+            scan.read(in);
+        }
+
+        //Check the calendar end was found
+        if(scan.calendarEnd == -1){
+            throw new IOException("The calendar end was not found.");
+        }
+
+        long eventsStart = scan.entries.isEmpty() ? scan.calendarEnd : scan.entries.get(0).offset;
+        long eventsEnd = scan.entries.isEmpty() ? scan.calendarEnd : scan.lastEnd;
+        return new CalendarIndex(absolute, size, modified, eventsStart, eventsEnd, scan.entries);
+    }
+
+    /**
+     * Creates the index of the file after event blocks were written at the end of the indexed events
+     * <p>
+     * Only the bytes from the indexed events end (the new blocks followed by the suffix) are scanned.
+     *
+     * @return The updated index
+     * @throws IOException When the calendar file could not be read
+     */
+    public CalendarIndex appended() throws IOException {
+        //Scan the written bytes
+        Scan scan = new Scan(eventsEnd);
+        try (InputStream in = Channels.newInputStream(FileChannel.open(path).position(eventsEnd))) {
+            scan.read(in);
+        }
+
+        //Combine the entries
+        List<Entry> combined = new ArrayList<>(entries.size() + scan.entries.size());
+        combined.addAll(entries);
+        combined.addAll(scan.entries);
+
+        long start = combined.isEmpty() ? eventsStart : combined.get(0).offset;
+        long end = scan.entries.isEmpty() ? eventsEnd : scan.lastEnd;
+        return new CalendarIndex(
+                path,
+                Files.size(path),
+                Files.getLastModifiedTime(path).toMillis(),
+                start,
+                end,
+                combined);
+    }
+
+    /**
+     * Persists the index next to the calendar file
+     *
+     * @throws IOException When the index could not be written
+     */
+    public void write() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar(path))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(eventsStart);
+            out.writeLong(eventsEnd);
+            out.writeInt(entries.size());
+            for(Entry e : entries){
+                out.writeLong(e.offset);
+                out.writeInt(e.length);
+                writeString(out, e.uid);
+                writeString(out, e.start);
+            }
+        }
+    }
+
+    /**
+     * Writes the string as its UTF-8 byte length followed by the bytes (not limited to 64 KiB like {@code writeUTF})
+     *
+     * @param out The stream to write to
+     * @param value The string
+     * @throws IOException When the string could not be written
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param in The stream to read from
+     * @param limit The largest valid length (the indexed file size)
+     * @return The string
+     * @throws IOException When the string could not be read or its length is invalid
+     */
+    private static String readString(DataInputStream in, long limit) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > limit){
+            throw new IOException("Invalid string length " + length + ".");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether the index still matches the calendar file
+     *
+     * An edit keeping both the size and the modification time (to the millisecond) is not detected.
+     *
+     * @return {@code true} when the file size and modification time match, {@code false} otherwise
+     */
+    public boolean isCurrent(){
+        try {
+            return size == Files.size(path) && modified == Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the first event block with the UID
+     * <p>
+     * Several blocks share a UID when the calendar has overrides of single occurrences ({@code RECURRENCE-ID}), in
+     * which case the first one in file order is returned (the same one a text search finds).
+     *
+     * @param uid The event UID
+     * @return The entry or {@code null} when not indexed
+     */
+    public Entry find(String uid){
+        List<Entry> found = byUid.get(uid);
+        return (found == null) ? null : found.get(0);
+    }
+
+    /**
+     * Finds all event blocks with the UID
+     *
+     * @param uid The event UID
+     * @return The entries in file order (empty when not indexed)
+     */
+    public List<Entry> findAll(String uid){
+        return Collections.unmodifiableList(byUid.getOrDefault(uid, Collections.emptyList()));
+    }
+
+    /**
+     * Lists the indexed event blocks in file order
+     *
+     * @return The entries
+     */
+    public List<Entry> getEntries(){
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Scans bytes of a calendar line by line for event blocks
+     */
+    private static class Scan {
+        /** The found entries */
+        private final List<Entry> entries = new ArrayList<>();
+        /** The byte offset of the calendar end ({@code -1} when not found) */
+        private long calendarEnd = -1;
+        /** The byte offset right after the last event block */
+        private long lastEnd = -1;
+        /** The byte offset of the current position */
+        private long position;
+        /** The current line */
+        private byte[] line = new byte[256];
+        /** The current line length */
+        private int lineLength = 0;
+        /** The byte offset of the current line start */
+        private long lineStart;
+        /** The byte offset of the current event start ({@code -1} when outside of an event) */
+        private long eventStart = -1;
+        /** The current event UID */
+        private String uid = "";
+        /** The current event start */
+        private String start = "";
+
+        /**
+         * Prepares the scan
+         *
+         * @param position The byte offset of the first scanned byte
+         */
+        private Scan(long position){
+            this.position = position;
+            this.lineStart = position;
+        }
+
+        /**
+         * Scans the stream to its end
+         *
+         * @param in The stream to scan
+         * @throws IOException When the stream could not be read
+         */
+        private void read(InputStream in) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                for(int i = 0; i < read; i++){
+                    byte b = buffer[i];
+                    position++;
+                    if(b == '\n'){
+                        endLine();
+                        lineStart = position;
+                    }else{
+                        //Grow the line when needed
+                        if(lineLength == line.length){
+                            line = Arrays.copyOf(line, line.length * 2);
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+            endLine();
+        }
+
+        /**
+         * Processes the current line
+         */
+        private void endLine(){
+            if(startsWith("BEGIN:VEVENT")){
+                eventStart = lineStart;
+                uid = "";
+                start = "";
+            }else if(startsWith("END:VEVENT") && eventStart != -1){
+                lastEnd = lineStart + "END:VEVENT".length();
+                entries.add(new Entry(eventStart, (int) (lastEnd - eventStart), uid, start));
+                eventStart = -1;
+            }else if(startsWith("UID:") && eventStart != -1){
+                uid = value();
+            }else if(startsWith("DTSTART") && eventStart != -1){
+                start = value();
+            }else if(startsWith("END:VCALENDAR")){
+                calendarEnd = lineStart;
+            }
+            lineLength = 0;
+        }
+
+        /**
+         * Checks whether the current line starts with the ASCII text
+         *
+         * @param text The text
+         * @return {@code true} when it does, {@code false} otherwise
+         */
+        private boolean startsWith(String text){
+            if(lineLength < text.length()){
+                return false;
+            }
+            for(int i = 0; i < text.length(); i++){
+                if(line[i] != text.charAt(i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Extracts the value of the current property line (after the first colon, without a trailing carriage return)
+         *
+         * @return The value
+         */
+        private String value(){
+            int end = (lineLength > 0 && line[lineLength - 1] == '\r') ? lineLength - 1 : lineLength;
+            for(int i = 0; i < end; i++){
+                if(line[i] == ':'){
+                    return new String(line, i + 1, end - i - 1, StandardCharsets.UTF_8);
+                }
+            }
+            return "";
+        }
+    }
+}
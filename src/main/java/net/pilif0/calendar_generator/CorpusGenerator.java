@@ -0,0 +1,396 @@
+package net.pilif0.calendar_generator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Generates large synthetic calendars for load and regression testing
+ * <p>
+ * The events are built as {@code Event} objects from a seeded random generator and streamed into the file as they are
+ * rendered, so even millions of events take little memory. UIDs and creation datetimes are derived from the seed and
+ * the event number, so the same settings always give the same file. The mix of single, expanded and rule events, the
+ * description lengths and the shares of events with non-ASCII text, local times and folded lines can be set.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class CorpusGenerator {
+    /** The first possible event date */
+    private static final LocalDate FIRST_DATE = LocalDate.of(2017, 1, 1);
+    /** The number of possible event dates */
+    private static final int DATE_RANGE = 3 * 365;
+    /** The longest weekly repetition (weeks) */
+    private static final int MAX_WEEKS = 12;
+    /** The longest monthly repetition (months) */
+    private static final int MAX_MONTHS = 12;
+    /** The longest yearly repetition (years) */
+    private static final int MAX_YEARS = 4;
+    /** The creation instant of the first event (seconds since epoch) */
+    private static final long FIRST_CREATION = 1483228800L;
+    /** The time zones of the events */
+    private static final ZoneId[] ZONES = {
+            ZoneId.of("UTC"), ZoneId.of("Europe/London"), ZoneId.of("America/New_York"), ZoneId.of("Asia/Tokyo"),
+            ZoneId.of("Australia/Sydney")};
+    /** The ASCII words of the texts */
+    private static final String[] WORDS = {
+            "meeting", "lecture", "review", "planning", "team", "project", "weekly", "sync", "design", "budget",
+            "report", "lunch", "seminar", "workshop", "call", "client", "release", "sprint", "demo", "training"};
+    /** The non-ASCII words of the texts (including characters outside the basic multilingual plane) */
+    private static final String[] UNICODE_WORDS = {
+            "caf\u00E9", "Z\u00FCrich", "na\u00EFve", "d\u00E9j\u00E0-vu",
+            "\u0395\u03BB\u03BB\u03B7\u03BD\u03B9\u03BA\u03AC", "\u0412\u0441\u0442\u0440\u0435\u0447\u0430", "\u4F1A\u8B70",
+            "\u65E5\u672C\u8A9E", "\uD68C\uC758", "\u0645\u0631\u062D\u0628\u0627", "\u05E9\u05DC\u05D5\u05DD",
+            "\u0939\u093F\u0928\u094D\u0926\u0940", "\uD83D\uDCC5", "\uD83C\uDF89", "\uD834\uDD1E"};
+    /** The event locations */
+    private static final String[] LOCATIONS = {"", "Room 1", "Room 2", "Main hall", "Online", "Caf\u00E9 Z\u00FCrich"};
+
+    /** The random generator seed */
+    public final long seed;
+    /** The number of events to generate */
+    public final int events;
+    /** The share of repeating series among the generated series */
+    private double repeating = 0.2;
+    /** The share of repeating series written as a single entry with a repetition rule */
+    private double asRule = 0.5;
+    /** The shortest description */
+    private int minDescription = 0;
+    /** The longest description */
+    private int maxDescription = 200;
+    /** The share of events with non-ASCII text */
+    private double unicode = 0.1;
+    /** The share of events with local times */
+    private double localTime = 0.3;
+    /** The share of events with folded lines */
+    private double folded = 0.2;
+
+    /**
+     * Prepares the generator with the default mix
+     *
+     * @param seed The random generator seed
+     * @param events The number of events to generate
+     */
+    public CorpusGenerator(long seed, int events){
+        if(events < 1){
+            throw new IllegalArgumentException("The number of events must be positive.");
+        }
+        this.seed = seed;
+        this.events = events;
+    }
+
+    /**
+     * Sets the mix of repetition patterns
+     *
+     * @param repeating The share of repeating series among the generated series
+     * @param asRule The share of repeating series written as a single entry with a repetition rule
+     * @return This generator
+     */
+    public CorpusGenerator repeating(double repeating, double asRule){
+        this.repeating = share(repeating);
+        this.asRule = share(asRule);
+        return this;
+    }
+
+    /**
+     * Sets the range of description lengths
+     *
+     * @param min The shortest description
+     * @param max The longest description
+     * @return This generator
+     */
+    public CorpusGenerator descriptions(int min, int max){
+        if(min < 0 || max < min){
+            throw new IllegalArgumentException("The description lengths are not a range.");
+        }
+        this.minDescription = min;
+        this.maxDescription = max;
+        return this;
+    }
+
+    /**
+     * Sets the share of events with non-ASCII text
+     *
+     * @param unicode The share
+     * @return This generator
+     */
+    public CorpusGenerator unicode(double unicode){
+        this.unicode = share(unicode);
+        return this;
+    }
+
+    /**
+     * Sets the share of events with local times
+     *
+     * @param localTime The share
+     * @return This generator
+     */
+    public CorpusGenerator localTime(double localTime){
+        this.localTime = share(localTime);
+        return this;
+    }
+
+    /**
+     * Sets the share of events with folded lines
+     *
+     * @param folded The share
+     * @return This generator
+     */
+    public CorpusGenerator folded(double folded){
+        this.folded = share(folded);
+        return this;
+    }
+
+    /**
+     * Sets an option by its name (as given on the command line)
+     *
+     * @param option The option ({@code name=value}, values of ranges are {@code min..max})
+     * @return This generator
+     */
+    public CorpusGenerator option(String option){
+        int equals = option.indexOf('=');
+        if(equals == -1){
+            throw new IllegalArgumentException("The option \'" + option + "\' has no value.");
+        }
+        String name = option.substring(0, equals);
+        String value = option.substring(equals + 1);
+
+        try {
+            switch(name){
+                case "repeating": return repeating(Double.parseDouble(value), asRule);
+                case "rules": return repeating(repeating, Double.parseDouble(value));
+                case "description":
+                    String[] range = value.split("\\.\\.");
+                    return descriptions(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+                case "unicode": return unicode(Double.parseDouble(value));
+                case "local": return localTime(Double.parseDouble(value));
+                case "folded": return folded(Double.parseDouble(value));
+                default:
+                    throw new IllegalArgumentException("Unknown option \'" + name + "\'.");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The option \'" + option + "\' has a bad value.");
+        }
+    }
+
+    /**
+     * Generates the calendar into the file (replacing it)
+     * <p>
+     * The events are streamed between the prefix and suffix of an empty calendar with all the time zones defined, so
+     * the file is written in one pass whatever its size. Compressed and jCal files are written as for any calendar.
+     *
+     * @param file The file to write
+     * @throws IOException When the file could not be written
+     */
+    public void generate(Path file) throws IOException {
+        long start = System.nanoTime();
+
+        //Prepare the calendar layout with all the time zones
+        Map<ZoneId, ZoneOffsets> zones = new HashMap<>();
+        Calendar cal = Calendar.empty(file, ZoneId.of("UTC"), "Corpus " + seed);
+        for(ZoneId zone : ZONES){
+            ZoneOffsets offsets = ZoneOffsets.of(zone, FIRST_DATE, FIRST_DATE.plusDays(DATE_RANGE + 2).plusYears(MAX_YEARS));
+            zones.put(zone, offsets);
+        }
+
+        //Write the events series by series
+        Writer out = Calendar.openOutput(file);
+        if(Calendar.Format.of(file) == Calendar.Format.JCAL){
+            out = new JCalWriter(out);
+        }
+        int written = 0;
+        try {
+            out.write(cal.prefix);
+            for(ZoneId zone : ZONES){
+                if(!zone.getId().equals("UTC")){
+                    out.write(zones.get(zone).toDefinition());
+                    out.write("\n");
+                }
+            }
+
+            Random random = new Random(seed);
+            while(written < events){
+                List<Event> series = nextSeries(random, zones, written);
+                boolean fold = random.nextDouble() < folded;
+                for(Event e : series){
+                    if(written == events){
+                        break;
+                    }
+                    if(out instanceof JCalWriter){
+                        //Write jCal straight from the properties (folding does not apply)
+                        ((JCalWriter) out).writeEvent(e);
+                    }else{
+                        out.write("\n");
+                        out.write(fold ? Event.fold(e.toEntry()) : e.toEntry());
+                    }
+                    written++;
+                }
+            }
+
+            out.write("\n");
+            out.write(cal.suffix);
+        } finally {
+            out.close();
+        }
+
+        //DEBUG: print generation note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Generated %d events into \'%s\' in %d ms\n",
+                    written, file, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Generates the events of the next series (a single event, an expanded repetition or a repetition rule)
+     *
+     * @param random The random generator
+     * @param zones The time zones with offsets over all possible dates
+     * @param number The number of the first event of the series
+     * @return The events with their UIDs and creation fixed
+     */
+    private List<Event> nextSeries(Random random, Map<ZoneId, ZoneOffsets> zones, int number){
+        //Pick the event values
+        boolean nonAscii = random.nextDouble() < unicode;
+        LocalDate date = FIRST_DATE.plusDays(random.nextInt(DATE_RANGE));
+        LocalTime startTime = LocalTime.of(7 + random.nextInt(12), 15 * random.nextInt(4));
+        LocalDateTime end = LocalDateTime.of(date, startTime).plusMinutes(30 + 15 * random.nextInt(11));
+        Event event = new Event(
+                words(random, 1 + random.nextInt(4), nonAscii),
+                date,
+                end.toLocalDate(),
+                startTime,
+                end.toLocalTime(),
+                LOCATIONS[random.nextInt(LOCATIONS.length)],
+                description(random, nonAscii),
+                random.nextBoolean());
+        ZoneId zone = ZONES[random.nextInt(ZONES.length)];
+        event = event.withZone(zones.get(zone), !zone.getId().equals("UTC") && random.nextDouble() < localTime);
+
+        //Pick the repetition
+        List<Event> series;
+        if(random.nextDouble() < repeating){
+            //Mostly weekly, otherwise on a day of the month or the n-th day of the week in it
+            boolean[] days = new boolean[Recurrence.DAY_NAMES.length];
+            int pattern = random.nextInt(10);
+            int interval = 1 + random.nextInt(2);
+            Recurrence.Frequency frequency;
+            LocalDate to;
+            if(pattern < 7){
+                frequency = Recurrence.Frequency.WEEKLY;
+                days[date.getDayOfWeek().ordinal()] = true;
+                days[random.nextInt(days.length)] = true;
+                to = date.plusWeeks(1 + random.nextInt(MAX_WEEKS));
+            }else{
+                frequency = (pattern < 9) ? Recurrence.Frequency.MONTHLY : Recurrence.Frequency.YEARLY;
+                if(random.nextBoolean()){
+                    days[random.nextInt(days.length)] = true;
+                }
+                to = (frequency == Recurrence.Frequency.MONTHLY)
+                        ? date.plusMonths(1 + random.nextInt(MAX_MONTHS))
+                        : date.plusYears(1 + random.nextInt(MAX_YEARS));
+            }
+            int ordinal = random.nextInt(5);
+            Exclusions excluded = new Exclusions();
+            Recurrence recurrence = new Recurrence(frequency, interval, days, (ordinal == 4) ? Recurrence.LAST : ordinal + 1,
+                    date, to, excluded);
+
+            //Skip the second occurrence of some
+            LocalDate first = recurrence.first();
+            if(random.nextBoolean() && first != null){
+                LocalDate second = recurrence.next(first.plusDays(1));
+                if(second != null){
+                    excluded.add(second);
+                }
+            }
+
+            //Keep the single event when the pattern has no occurrences (e.g. a fifth day in too few months)
+            if(first == null){
+                series = Collections.singletonList(event);
+            }else{
+                Event template = event.withRecurrence(recurrence);
+                series = (random.nextDouble() < asRule)
+                        ? Collections.singletonList(template)
+                        : recurrence.expand(template);
+            }
+        }else{
+            series = Collections.singletonList(event);
+        }
+
+        //Fix the UIDs and creation derived from the seed and number
+        List<Event> result = new ArrayList<>(series.size());
+        for(int i = 0; i < series.size(); i++){
+            result.add(series.get(i)
+                    .withUid(String.format("corpus-%d-%d@pilif0.net", seed, number + i))
+                    .withCreation(Instant.ofEpochSecond(FIRST_CREATION + number + i)));
+        }
+        return result;
+    }
+
+    /**
+     * Generates a description of random length (a few of its words on new lines)
+     *
+     * @param random The random generator
+     * @param nonAscii Whether to include non-ASCII words
+     * @return The description
+     */
+    private String description(Random random, boolean nonAscii){
+        int length = minDescription + random.nextInt(maxDescription - minDescription + 1);
+        StringBuilder result = new StringBuilder(length + 16);
+        while(result.length() < length){
+            if(result.length() > 0){
+                result.append(random.nextInt(10) == 0 ? '\n' : ' ');
+            }
+            result.append(word(random, nonAscii));
+        }
+        result.setLength(length);
+
+        //Do not end in the middle of a surrogate pair
+        if(length > 0 && Character.isHighSurrogate(result.charAt(length - 1))){
+            result.setLength(length - 1);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Generates a text of random words
+     *
+     * @param random The random generator
+     * @param count The number of words
+     * @param nonAscii Whether to include non-ASCII words
+     * @return The text
+     */
+    private static String words(Random random, int count, boolean nonAscii){
+        StringJoiner result = new StringJoiner(" ");
+        for(int i = 0; i < count; i++){
+            result.add(word(random, nonAscii));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Picks a random word
+     *
+     * @param random The random generator
+     * @param nonAscii Whether the word may be non-ASCII
+     * @return The word
+     */
+    private static String word(Random random, boolean nonAscii){
+        return (nonAscii && random.nextInt(3) == 0)
+                ? UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)]
+                : WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * Checks a share is between zero and one
+     *
+     * @param share The share
+     * @return The share
+     */
+    private static double share(double share){
+        if(share < 0 || share > 1){
+            throw new IllegalArgumentException("A share must be between 0 and 1.");
+        }
+        return share;
+    }
+}
@@ -2,6 +2,9 @@ package net.pilif0.calendar_generator;
 
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Represents a single event
@@ -10,8 +13,10 @@ import java.time.format.DateTimeFormatter;
  * @version 1.0
  */
 public class Event {
-    /** The date time formatter (':', ' ', and '-' will be removed) */
-    public static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ISO_INSTANT;
+    /** The UTC date time formatter */
+    public static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    /** The local date time formatter (used with a time zone identifier) */
+    public static final DateTimeFormatter LOCAL_DATETIME_FORMAT = ZoneOffsets.LOCAL_DATETIME_FORMAT;
 
     /** The event title */
     public final String title;
@@ -25,12 +30,20 @@ public class Event {
     public final LocalTime endTime;
     /** The event location */
     public final String location;
-    /** The date and time of object creation */
-    public final LocalDateTime creation = LocalDateTime.now();
+    /** The instant of object creation */
+    public final Instant creation;
     /** The event description */
     public final String description;
     /** The event transparency */
     public final boolean available;
+    /** The event repetition ({@code null} when the event does not repeat) */
+    public final Recurrence recurrence;
+    /** The time zone of the event dates and times */
+    public final ZoneOffsets zone;
+    /** Whether to print local times with the time zone identifier instead of UTC times */
+    public final boolean localTime;
+    /** The event UID ({@code null} when generated on printing) */
+    public final String uid;
 
     /**
      * Constructs the event from its information
@@ -43,6 +56,26 @@ public class Event {
                  String location,
                  String description,
                  boolean available) {
+        this(title, startDate, endDate, startTime, endTime, location, description, available, null,
+                ZoneOffsets.SYSTEM, false, Instant.now(), null);
+    }
+
+    /**
+     * Constructs the event from all its information
+     */
+    private Event(String title,
+                  LocalDate startDate,
+                  LocalDate endDate,
+                  LocalTime startTime,
+                  LocalTime endTime,
+                  String location,
+                  String description,
+                  boolean available,
+                  Recurrence recurrence,
+                  ZoneOffsets zone,
+                  boolean localTime,
+                  Instant creation,
+                  String uid) {
         this.title = title;
         this.startDate = startDate;
         this.endDate = endDate;
@@ -51,6 +84,191 @@ public class Event {
         this.location = location;
         this.description = description;
         this.available = available;
+        this.recurrence = recurrence;
+        this.zone = zone;
+        this.localTime = localTime;
+        this.creation = creation;
+        this.uid = uid;
+    }
+
+    /**
+     * Creates a single copy of this event moved to another date (the duration is kept)
+     * <p>
+     * The copy is a separate event, so its UID is generated on printing.
+     *
+     * @param date The new start date
+     * @return The moved event
+     */
+    public Event withDate(LocalDate date){
+        return new Event(
+                title,
+                date,
+                date.plusDays(endDate.toEpochDay() - startDate.toEpochDay()),
+                startTime,
+                endTime,
+                location,
+                description,
+                available,
+                null,
+                zone,
+                localTime,
+                creation,
+                null);
+    }
+
+    /**
+     * Creates a copy of this event that repeats according to the recurrence
+     * <p>
+     * The copy starts on the first date matching the recurrence and keeps the duration of this event.
+     *
+     * @param recurrence The event repetition
+     * @return The repeating event
+     * @throws IllegalArgumentException When the repetition has no occurrences
+     */
+    public Event withRecurrence(Recurrence recurrence){
+        LocalDate first = recurrence.first();
+        if(first == null){
+            throw new IllegalArgumentException("The repetition has no occurrences.");
+        }
+
+        return new Event(
+                title,
+                first,
+                first.plusDays(endDate.toEpochDay() - startDate.toEpochDay()),
+                startTime,
+                endTime,
+                location,
+                description,
+                available,
+                recurrence,
+                zone,
+                localTime,
+                creation,
+                uid);
+    }
+
+    /**
+     * Creates a copy of this event in another time zone
+     *
+     * @param zone The time zone (its window should cover the event and its repetition)
+     * @param localTime Whether to print local times with the time zone identifier instead of UTC times
+     * @return The event in the time zone
+     */
+    public Event withZone(ZoneOffsets zone, boolean localTime){
+        return new Event(
+                title,
+                startDate,
+                endDate,
+                startTime,
+                endTime,
+                location,
+                description,
+                available,
+                recurrence,
+                zone,
+                localTime,
+                creation,
+                uid);
+    }
+
+    /**
+     * Creates a copy of this event in the time zone, repeating by the recurrence when it repeats
+     * <p>
+     * The time zone offsets are precomputed over the whole series (the repetition end is extended by the event
+     * duration).
+     *
+     * @param zone The time zone
+     * @param localTime Whether to print local times with the time zone identifier instead of UTC times
+     * @param recurrence The event repetition (ignored when it does not repeat)
+     * @return The event in the time zone (template of the series when repeating)
+     * @throws IllegalArgumentException When the repetition has no occurrences
+     */
+    public Event inSeries(ZoneId zone, boolean localTime, Recurrence recurrence){
+        boolean shouldRepeat = recurrence != null && recurrence.isRepeating();
+
+        LocalDate windowFrom = shouldRepeat ? recurrence.from : startDate;
+        LocalDate windowTo = (shouldRepeat ? recurrence.to : startDate)
+                .plusDays(Math.max(0, endDate.toEpochDay() - startDate.toEpochDay()) + 1);
+        Event result = withZone(ZoneOffsets.of(zone, windowFrom, windowTo), localTime);
+
+        return shouldRepeat ? result.withRecurrence(recurrence) : result;
+    }
+
+    /**
+     * Creates a copy of this event with a fixed UID (so printing it again gives the same entry)
+     *
+     * @param uid The event UID ({@code null} to generate it on printing)
+     * @return The event with the UID
+     */
+    public Event withUid(String uid){
+        return new Event(
+                title,
+                startDate,
+                endDate,
+                startTime,
+                endTime,
+                location,
+                description,
+                available,
+                recurrence,
+                zone,
+                localTime,
+                creation,
+                uid);
+    }
+
+    /**
+     * Creates a copy of this event with another creation instant
+     *
+     * @param creation The instant of creation (printed in UTC, so no time zone is involved)
+     * @return The event with the creation instant
+     */
+    public Event withCreation(Instant creation){
+        return new Event(
+                title,
+                startDate,
+                endDate,
+                startTime,
+                endTime,
+                location,
+                description,
+                available,
+                recurrence,
+                zone,
+                localTime,
+                creation,
+                uid);
+    }
+
+    /**
+     * Represents a single property of the event entry (as printed into the iCalendar file)
+     */
+    public static class Property {
+        /** The property name */
+        public final String name;
+        /** The property parameters (each including its leading separator, empty when none) */
+        public final String parameters;
+        /** The property value (escaped as in the iCalendar file) */
+        public final String value;
+
+        /**
+         * Constructs the property from its information
+         */
+        public Property(String name, String parameters, String value) {
+            this.name = name;
+            this.parameters = parameters;
+            this.value = value;
+        }
+
+        /**
+         * Formats the property as an iCalendar content line
+         *
+         * @return The content line (without the line separator)
+         */
+        @Override
+        public String toString() {
+            return name + parameters + ":" + value;
+        }
     }
 
     /**
@@ -61,34 +279,93 @@ public class Event {
     public String toEntry(){
         StringBuilder result = new StringBuilder();
 
-        result.append("BEGIN:VEVENT").append(System.lineSeparator())
-                .append("DTSTART:").append(getStartDatetime()).append(System.lineSeparator())
-                .append("DTEND:").append(getEndDatetime()).append(System.lineSeparator())
-                .append("DTSTAMP:").append(getCreationDatetime()).append(System.lineSeparator())
-                .append("UID:").append(getUID()).append(System.lineSeparator())
-                .append("CREATED:").append(getCreationDatetime()).append(System.lineSeparator())
-                .append("DESCRIPTION:").append(getDescription()).append(System.lineSeparator())
-                .append("LAST-MODIFIED:").append(getCreationDatetime()).append(System.lineSeparator())
-                .append("LOCATION:").append(getLocation()).append(System.lineSeparator())
-                .append("SEQUENCE:0").append(System.lineSeparator())
-                .append("STATUS:CONFIRMED").append(System.lineSeparator())
-                .append("SUMMARY:").append(getTitle()).append(System.lineSeparator())
-                .append("TRANSP:").append((available) ? "TRANSPARENT" : "OPAQUE").append(System.lineSeparator())
-                .append("END:VEVENT");
+        result.append("BEGIN:VEVENT").append(System.lineSeparator());
+        getProperties().forEach(p -> result.append(p).append(System.lineSeparator()));
+        result.append("END:VEVENT");
 
         return result.toString();
     }
 
+    /**
+     * Folds the lines of an iCalendar entry longer than 75 octets (UTF-8) into continuation lines
+     * <p>
+     * Each continuation line starts with a space, characters are never split. The lines are broken with the line
+     * separator the entry already uses (CRLF when it has a single line), regardless of the platform.
+     *
+     * @param entry The entry to fold
+     * @return The folded entry
+     */
+    public static String fold(String entry){
+        int firstBreak = entry.indexOf('\n');
+        String separator = (firstBreak > 0 && entry.charAt(firstBreak - 1) != '\r') ? "\n" : "\r\n";
+
+        StringBuilder result = new StringBuilder(entry.length() + entry.length() / 32);
+        int octets = 0;
+        for(int i = 0; i < entry.length(); i++){
+            char c = entry.charAt(i);
+            if(c == '\n' || c == '\r'){
+                result.append(c);
+                octets = 0;
+                continue;
+            }
+
+            //Count the octets of the whole character (a surrogate pair is one character)
+            int length = (c < 0x80) ? 1 : (c < 0x800) ? 2 : Character.isHighSurrogate(c) ? 4 : 3;
+            if(octets + length > 75){
+                result.append(separator).append(' ');
+                octets = 1;
+            }
+            result.append(c);
+            if(length == 4 && i + 1 < entry.length()){
+                result.append(entry.charAt(++i));
+            }
+            octets += length;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Lists the properties of the event entry in the order they are printed
+     *
+     * @return The properties
+     */
+    public List<Property> getProperties(){
+        List<Property> result = new ArrayList<>();
+        String timeParameters = getTimeParameters();
+
+        result.add(new Property("DTSTART", timeParameters, getStartDatetime()));
+        result.add(new Property("DTEND", timeParameters, getEndDatetime()));
+
+        //Add the repetition rule and the skipped occurrences
+        if(recurrence != null){
+            result.add(new Property("RRULE", "", recurrence.toRule()
+                    + ";UNTIL=" + formatUtc(LocalDateTime.of(recurrence.last(), startTime))));
+            recurrence.excludedOccurrences()
+                    .forEach(d -> result.add(new Property("EXDATE", timeParameters, format(LocalDateTime.of(d, startTime)))));
+        }
+
+        String created = getCreationDatetime();
+        result.add(new Property("DTSTAMP", "", created));
+        result.add(new Property("UID", "", getUID()));
+        result.add(new Property("CREATED", "", created));
+        result.add(new Property("DESCRIPTION", "", getDescription()));
+        result.add(new Property("LAST-MODIFIED", "", created));
+        result.add(new Property("LOCATION", "", getLocation()));
+        result.add(new Property("SEQUENCE", "", "0"));
+        result.add(new Property("STATUS", "", "CONFIRMED"));
+        result.add(new Property("SUMMARY", "", getTitle()));
+        result.add(new Property("TRANSP", "", (available) ? "TRANSPARENT" : "OPAQUE"));
+
+        return result;
+    }
+
     /**
      * Returns the start datetime formatted for printing into  the iCalendar file
      *
      * @return The resulting datetime String
      */
     private String getStartDatetime(){
-        return LocalDateTime.of(startDate, startTime)
-                .atZone(ZoneId.systemDefault())
-                .format(DATETIME_FORMAT)
-                .replaceAll("\\ |-|:", "");
+        return format(LocalDateTime.of(startDate, startTime));
     }
 
     /**
@@ -97,10 +374,7 @@ public class Event {
      * @return The resulting datetime String
      */
     private String getEndDatetime(){
-        return LocalDateTime.of(endDate, endTime)
-                .atZone(ZoneId.systemDefault())
-                .format(DATETIME_FORMAT)
-                .replaceAll("\\ |-|:", "");
+        return format(LocalDateTime.of(endDate, endTime));
     }
 
     /**
@@ -110,9 +384,39 @@ public class Event {
      */
     private String getCreationDatetime(){
         return creation
-                .atZone(ZoneId.systemDefault())
-                .format(DATETIME_FORMAT)
-                .replaceAll("\\ |-|:", "");
+                .atOffset(ZoneOffset.UTC)
+                .format(DATETIME_FORMAT);
+    }
+
+    /**
+     * Returns the parameters of the event datetimes (the time zone identifier when printing local times)
+     *
+     * @return The parameters (including their separator, empty when none)
+     */
+    private String getTimeParameters(){
+        return localTime ? ";TZID=" + zone.zone.getId() : "";
+    }
+
+    /**
+     * Formats an event datetime for printing into the iCalendar file (local when printing local times, UTC otherwise)
+     *
+     * @param datetime The local datetime in the event time zone
+     * @return The resulting datetime String
+     */
+    private String format(LocalDateTime datetime){
+        return localTime ? datetime.format(LOCAL_DATETIME_FORMAT) : formatUtc(datetime);
+    }
+
+    /**
+     * Formats an event datetime as UTC for printing into the iCalendar file
+     *
+     * @param datetime The local datetime in the event time zone
+     * @return The resulting datetime String
+     */
+    private String formatUtc(LocalDateTime datetime){
+        return zone.toUtc(datetime)
+                .withNano(0)
+                .format(DATETIME_FORMAT);
     }
 
     /**
@@ -141,12 +445,12 @@ public class Event {
     private String getTitle(){ return title; }
 
     /**
-     * Generates the UID (using creation timestamp)
+     * Returns the fixed UID or generates one (random, so events rendered at the same time on different threads differ)
      *
      * @return The UID
      */
-    private String getUID(){
-        return System.nanoTime() + "@pilif0.net";
+    public String getUID(){
+        return (uid != null) ? uid : UUID.randomUUID() + "@pilif0.net";
     }
 
 }
@@ -0,0 +1,222 @@
+package net.pilif0.calendar_generator;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects rendered event entries for a calendar from many threads at once
+ * <p>
+ * Each submitting thread renders its entries itself and appends them to one of several lock-free queues (picked by
+ * the thread), so producers neither wait for each other nor for the calendar. When the calendar is saved the entries
+ * are drained and put into a deterministic order: by start or by submission sequence. Saving should happen after the
+ * producers finish, entries submitted during a save are written by the next save.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class EventSink {
+    /**
+     * The order of the drained entries
+     */
+    public enum Order {
+        /** In the order they were submitted (across all threads) */
+        SUBMISSION,
+        /** By their start instant (submission order for equal starts) */
+        START
+    }
+
+    /**
+     * Represents a single submitted entry
+     */
+    private static class Item {
+        /** The submission sequence number */
+        private final long sequence;
+        /** The start as UTC epoch seconds */
+        private final long start;
+        /** The rendered entry */
+        private final String entry;
+
+        /**
+         * Constructs the item from its information
+         */
+        private Item(long sequence, long start, String entry) {
+            this.sequence = sequence;
+            this.start = start;
+            this.entry = entry;
+        }
+    }
+
+    /** The order of the drained entries */
+    public final Order order;
+    /** The entry queues (one is picked by each thread) */
+    private final ConcurrentLinkedQueue<Item>[] stripes;
+    /** The next submission sequence number */
+    private final AtomicLong sequence = new AtomicLong();
+    /** The time zones of submitted events using local times */
+    private final ConcurrentHashMap<ZoneId, ZoneOffsets> timezones = new ConcurrentHashMap<>();
+
+    /**
+     * Prepares an empty sink with a queue for each two processors
+     *
+     * @param order The order of the drained entries
+     */
+    public EventSink(Order order){
+        this(order, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Prepares an empty sink
+     *
+     * @param order The order of the drained entries
+     * @param stripes The minimal number of queues (rounded up to a power of two)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public EventSink(Order order, int stripes){
+        this.order = order;
+
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ConcurrentLinkedQueue[count];
+        for(int i = 0; i < count; i++){
+            this.stripes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Renders and submits the event (safe to call from any thread)
+     *
+     * @param e The event to submit
+     */
+    public void submit(Event e){
+        if(e.localTime){
+            timezones.merge(e.zone.zone, e.zone, ZoneOffsets::merge);
+        }
+
+        long start = e.zone.toUtc(LocalDateTime.of(e.startDate, e.startTime)).toEpochSecond(ZoneOffset.UTC);
+        submit(start, e.toEntry());
+    }
+
+    /**
+     * Submits an already rendered event entry (safe to call from any thread)
+     *
+     * @param entry The event entry ({@code BEGIN:VEVENT} to {@code END:VEVENT})
+     */
+    public void submit(String entry){
+        submit(parseStart(entry), entry);
+    }
+
+    /**
+     * Submits an entry with a known start
+     *
+     * @param start The start as UTC epoch seconds
+     * @param entry The event entry
+     */
+    private void submit(long start, String entry){
+        Item item = new Item(sequence.getAndIncrement(), start, entry);
+        stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)].add(item);
+    }
+
+    /**
+     * Counts the entries waiting to be drained (not exact while entries are being submitted)
+     *
+     * @return The number of waiting entries
+     */
+    public int size(){
+        int result = 0;
+        for(ConcurrentLinkedQueue<Item> stripe : stripes){
+            result += stripe.size();
+        }
+        return result;
+    }
+
+    /**
+     * Moves the waiting entries (in order) and the needed time zone definitions into the calendar
+     *
+     * @param cal The calendar to move them into
+     * @return The number of moved entries
+     */
+    public int drainTo(Calendar cal){
+        //Take the entries out of all the queues
+        List<Item> items = new ArrayList<>();
+        for(ConcurrentLinkedQueue<Item> stripe : stripes){
+            Item item;
+            while((item = stripe.poll()) != null){
+                items.add(item);
+            }
+        }
+
+        //Put them in order
+        Comparator<Item> bySequence = Comparator.comparingLong(i -> i.sequence);
+        items.sort((order == Order.START)
+                ? Comparator.<Item>comparingLong(i -> i.start).thenComparing(bySequence)
+                : bySequence);
+
+        //Move the time zones and entries
+        timezones.values().forEach(cal::addTimezone);
+        items.forEach(i -> cal.addEntry(i.entry));
+
+        //DEBUG: print drain note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Drained %d entries from %d queue(s) into \'%s\'\n", items.size(), stripes.length, cal.path);
+        }
+
+        return items.size();
+    }
+
+    /**
+     * Finds the start of a rendered entry as UTC epoch seconds
+     * <p>
+     * Entries without a parsable start are ordered first.
+     *
+     * @param entry The event entry
+     * @return The start as UTC epoch seconds
+     */
+    private static long parseStart(String entry){
+        //Find the DTSTART line
+        int lineStart = entry.indexOf("\nDTSTART");
+        if(lineStart == -1){
+            return Long.MIN_VALUE;
+        }
+        lineStart++;
+        int lineEnd = entry.indexOf('\n', lineStart);
+        String line = entry.substring(lineStart, (lineEnd == -1) ? entry.length() : lineEnd).trim();
+
+        //Separate the parameters and the value (a line without one is treated as missing)
+        int colon = line.lastIndexOf(':');
+        if(colon == -1){
+            return Long.MIN_VALUE;
+        }
+        String value = line.substring(colon + 1);
+        String parameters = line.substring(0, colon);
+
+        try {
+            if(value.endsWith("Z")){
+                //Case: UTC datetime
+                return LocalDateTime.parse(value, Event.DATETIME_FORMAT).toEpochSecond(ZoneOffset.UTC);
+            }else if(value.length() == 8){
+                //Case: date
+                return LocalDate.parse(value, DateTimeFormatter.BASIC_ISO_DATE).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+            }else{
+                //Case: local datetime (in the zone of the TZID parameter when present)
+                LocalDateTime local = LocalDateTime.parse(value, ZoneOffsets.LOCAL_DATETIME_FORMAT);
+                int tzid = parameters.indexOf("TZID=");
+                if(tzid == -1){
+                    return local.toEpochSecond(ZoneOffset.UTC);
+                }
+                String zone = parameters.substring(tzid + 5).split(";")[0];
+                return local.atZone(ZoneId.of(zone)).toEpochSecond();
+            }
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
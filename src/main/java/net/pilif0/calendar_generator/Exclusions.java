@@ -0,0 +1,340 @@
+package net.pilif0.calendar_generator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Represents a set of dates on which a repeating event does not occur (holidays, term breaks, ...)
+ * <p>
+ * The dates are kept in a bit set indexed by the epoch day relative to the earliest date in the set, which makes
+ * membership tests constant time and keeps even years of dates down to a few words.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Exclusions {
+    /** The separator of the items when parsing from text */
+    public static final String ITEM_SEPARATOR = ",";
+    /** The separator of the range bounds when parsing from text */
+    public static final String RANGE_SEPARATOR = "..";
+    /** The date formatter of the parsed text */
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+    /** The date formatter of the iCalendar {@code DATE} and {@code DATE-TIME} values (date part only) */
+    public static final DateTimeFormatter ICAL_DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /** The excluded days (bit {@code i} is the epoch day {@code base + i}) */
+    private BitSet days = new BitSet();
+    /** The epoch day of bit 0 */
+    private long base = 0;
+
+    /**
+     * Excludes a single date
+     *
+     * @param date The date to exclude
+     */
+    public void add(LocalDate date){
+        add(date, date);
+    }
+
+    /**
+     * Excludes a range of dates
+     *
+     * @param from The first date to exclude (inclusive)
+     * @param to The last date to exclude (inclusive)
+     */
+    public void add(LocalDate from, LocalDate to){
+        //Check the range is not reversed
+        if(to.isBefore(from)){
+            throw new IllegalArgumentException("The exclusion range ends before it starts.");
+        }
+
+        //Move the base so that the start has a non-negative index
+        rebase(from.toEpochDay());
+
+        days.set(index(from.toEpochDay()), index(to.toEpochDay()) + 1);
+    }
+
+    /**
+     * Excludes all the dates excluded by another set
+     *
+     * @param other The other set of exclusions
+     */
+    public void addAll(Exclusions other){
+        if(other.isEmpty()){
+            return;
+        }
+
+        //Move the base so that the other's dates have non-negative indices
+        rebase(other.base);
+
+        //Shift and merge the bits
+        int shift = index(other.base);
+        for(int i = other.days.nextSetBit(0); i >= 0; i = other.days.nextSetBit(i + 1)){
+            days.set(i + shift);
+        }
+    }
+
+    /**
+     * Checks whether the date is excluded
+     *
+     * @param date The date to check
+     * @return {@code true} when excluded, {@code false} otherwise
+     */
+    public boolean contains(LocalDate date){
+        long i = date.toEpochDay() - base;
+        return i >= 0 && i < Integer.MAX_VALUE && days.get((int) i);
+    }
+
+    /**
+     * Checks whether no date is excluded
+     *
+     * @return {@code true} when no date is excluded, {@code false} otherwise
+     */
+    public boolean isEmpty(){
+        return days.isEmpty();
+    }
+
+    /**
+     * Counts the excluded dates
+     *
+     * @return The number of excluded dates
+     */
+    public int size(){
+        return days.cardinality();
+    }
+
+    /**
+     * Streams the excluded dates in a range in ascending order
+     *
+     * @param from The range start (inclusive)
+     * @param to The range end (exclusive)
+     * @return The excluded dates in the range
+     */
+    public Stream<LocalDate> between(LocalDate from, LocalDate to){
+        int start = (int) Math.max(0, Math.min(Integer.MAX_VALUE, from.toEpochDay() - base));
+        int end = (int) Math.max(0, Math.min(Integer.MAX_VALUE, to.toEpochDay() - base));
+        return days.get(start, Math.max(start, end))
+                .stream()
+                .mapToObj(i -> LocalDate.ofEpochDay(base + start + i));
+    }
+
+    /**
+     * Moves the base down so that the epoch day has a non-negative index
+     *
+     * @param epochDay The epoch day that has to fit
+     */
+    private void rebase(long epochDay){
+        //Case: empty set, just move the base
+        if(days.isEmpty()){
+            base = epochDay;
+            return;
+        }
+
+        //Case: the day already fits
+        if(epochDay >= base){
+            return;
+        }
+
+        //Case: shift all the bits up
+        int shift = Math.toIntExact(base - epochDay);
+        BitSet shifted = new BitSet(days.length() + shift);
+        for(int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(i + 1)){
+            shifted.set(i + shift);
+        }
+        days = shifted;
+        base = epochDay;
+    }
+
+    /**
+     * Computes the bit index of the epoch day
+     *
+     * @param epochDay The epoch day
+     * @return The bit index
+     */
+    private int index(long epochDay){
+        long i = epochDay - base;
+        if(i > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("The exclusion dates are too far apart.");
+        }
+        return (int) i;
+    }
+
+    /**
+     * Parses exclusions from text
+     * <p>
+     * The text is a comma separated list of dates ({@code 2017-04-14}) and inclusive date ranges
+     * ({@code 2017-04-10..2017-04-21}).
+     *
+     * @param text The text to parse
+     * @return The parsed exclusions
+     * @throws IllegalArgumentException When an item is not a date or a range (the message names it)
+     */
+    public static Exclusions parse(String text){
+        Exclusions result = new Exclusions();
+
+        for(String item : text.split(ITEM_SEPARATOR)){
+            item = item.trim();
+            if(item.isEmpty()){
+                continue;
+            }
+
+            int separator = item.indexOf(RANGE_SEPARATOR);
+            try {
+                if(separator == -1){
+                    //Case: single date
+                    result.add(LocalDate.parse(item, DATE_FORMAT));
+                }else{
+                    //Case: range
+                    LocalDate from = LocalDate.parse(item.substring(0, separator).trim(), DATE_FORMAT);
+                    LocalDate to = LocalDate.parse(item.substring(separator + RANGE_SEPARATOR.length()).trim(), DATE_FORMAT);
+                    result.add(from, to);
+                }
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("Bad excluded date \'" + item + "\' (expected 2017-04-14 or 2017-04-10..2017-04-21).");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads exclusions from the events in an iCalendar file (for example a holiday calendar)
+     * <p>
+     * Every date covered by an event is excluded, from its start date to the date of its end (an end at midnight
+     * does not cover its date). Datetimes are taken in the time zone of the series (UTC and zoned ones are converted,
+     * floating ones are taken as written). Events with an unreadable start are skipped.
+     *
+     * @param file The iCalendar file to read
+     * @param zone The time zone of the series
+     * @return The read exclusions
+     */
+    public static Exclusions fromCalendar(Path file, ZoneId zone){
+        //Read the lines (decompressing when compressed)
+        List<String> lines;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(Calendar.openInput(file), StandardCharsets.UTF_8))) {
+            lines = in.lines().collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            //DEBUG: print message
+            if(Main.debug) {
+                System.out.printf("[DEBUG] Exclusion calendar could not be read (%s).\n", e.getLocalizedMessage());
+            }
+            throw new IllegalArgumentException("The exclusion calendar could not be read.");
+        }
+
+        //Collect the start and end of each event
+        Exclusions result = new Exclusions();
+        LocalDateTime start = null;
+        LocalDateTime end = null;
+        for(String line : unfold(lines)){
+            if(line.startsWith("BEGIN:VEVENT")){
+                start = null;
+                end = null;
+            }else if(line.startsWith("DTSTART")){
+                start = parseDatetime(line, zone);
+            }else if(line.startsWith("DTEND")){
+                end = parseDatetime(line, zone);
+            }else if(line.startsWith("END:VEVENT") && start != null){
+                //The end is exclusive, so an end at midnight does not cover its date
+                LocalDate last = (end == null || !end.isAfter(start)) ? start.toLocalDate()
+                        : end.toLocalTime().equals(LocalTime.MIDNIGHT) ? end.toLocalDate().minusDays(1)
+                        : end.toLocalDate();
+                result.add(start.toLocalDate(), last.isBefore(start.toLocalDate()) ? start.toLocalDate() : last);
+            }
+        }
+
+        //DEBUG: print number of dates read
+        if(Main.debug){
+            System.out.printf("[DEBUG] Read %d excluded date(s) from \'%s\'\n", result.size(), file);
+        }
+
+        return result;
+    }
+
+    /**
+     * Joins folded iCalendar lines (continuation lines start with a space or a tab)
+     *
+     * @param lines The physical lines
+     * @return The logical lines
+     */
+    private static List<String> unfold(List<String> lines){
+        List<String> result = new ArrayList<>(lines.size());
+        for(String line : lines){
+            if(!result.isEmpty() && !line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t')){
+                int last = result.size() - 1;
+                result.set(last, result.get(last) + line.substring(1));
+            }else{
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses an iCalendar date or datetime property line into the local datetime in the time zone
+     *
+     * @param line The property line
+     * @param zone The time zone to take datetimes in
+     * @return The local datetime (the start of the day for dates) or {@code null} when the value is not readable
+     */
+    private static LocalDateTime parseDatetime(String line, ZoneId zone){
+        int colon = line.lastIndexOf(':');
+        String value = line.substring(colon + 1).trim();
+        if(!value.matches("\\d{8}(T\\d{6}Z?)?")){
+            //DEBUG: print skip note
+            if(Main.debug){
+                System.out.printf("[DEBUG] Skipped unreadable date \'%s\'\n", line);
+            }
+            return null;
+        }
+
+        try {
+            //Case: date
+            if(value.length() == 8){
+                return LocalDate.parse(value, ICAL_DATE_FORMAT).atStartOfDay();
+            }
+            LocalDateTime datetime = LocalDateTime.parse(value.substring(0, 15), ZoneOffsets.LOCAL_DATETIME_FORMAT);
+
+            //Find the time zone of the datetime (UTC or the TZID parameter, floating when neither)
+            ZoneId source;
+            if(value.endsWith("Z")){
+                source = ZoneOffset.UTC;
+            }else{
+                String parameters = line.substring(0, Math.max(0, colon));
+                int tzid = parameters.indexOf("TZID=");
+                if(tzid == -1){
+                    return datetime;
+                }
+                int tzidEnd = parameters.indexOf(';', tzid);
+                try {
+                    source = ZoneId.of(parameters
+                            .substring(tzid + "TZID=".length(), (tzidEnd == -1) ? parameters.length() : tzidEnd)
+                            .replace("\"", ""));
+                } catch (DateTimeException e) {
+                    //Case: unknown time zone, keep the datetime as written
+                    return datetime;
+                }
+            }
+
+            return datetime.atZone(source).withZoneSameInstant(zone).toLocalDateTime();
+        } catch (DateTimeException e) {
+            //Case: digits that are not a date (e.g. month 13)
+            return null;
+        }
+    }
+}
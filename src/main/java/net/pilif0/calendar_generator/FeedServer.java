@@ -0,0 +1,489 @@
+package net.pilif0.calendar_generator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the calendars built from the series definitions in a directory over HTTP on localhost
+ * <p>
+ * Each calendar groups the definitions naming it and is served as iCalendar ({@code /name.ics}) or jCal
+ * ({@code /name.json}). Rendered calendars are cached (least recently used are evicted over the size limit) and
+ * rendered again only when one of their definitions changes. Cached renderings are served without any lock, and
+ * requests for a rendering in progress wait for it instead of rendering again. Responses carry an entity tag, so
+ * polling subscribers that already have the current version get an empty {@code 304 Not Modified}.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class FeedServer {
+    /** The default port */
+    public static final int DEFAULT_PORT = 8080;
+    /** The default limit of the cached bytes */
+    public static final long DEFAULT_CACHE_SIZE = 32 * 1024 * 1024;
+    /** The shortest time between checks of the definition files (milliseconds) */
+    private static final long CHECK_INTERVAL = 1000;
+    /** The extension of iCalendar feeds */
+    private static final String ICALENDAR_EXTENSION = ".ics";
+    /** The extension of jCal feeds */
+    private static final String JCAL_EXTENSION = ".json";
+
+    /**
+     * Represents a rendered calendar
+     */
+    private static class Rendered {
+        /** The rendered bytes */
+        private final byte[] bytes;
+        /** The entity tag (quoted) */
+        private final String etag;
+
+        /**
+         * Constructs the rendered calendar from its information
+         */
+        private Rendered(byte[] bytes, String etag) {
+            this.bytes = bytes;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Represents a cached rendering (possibly still in progress)
+     */
+    private static class Cached {
+        /** The version of the definitions it is rendered from */
+        private final String version;
+        /** The rendering (completed once rendered) */
+        private final CompletableFuture<Rendered> rendering = new CompletableFuture<>();
+        /** The time of the last use (nanoseconds, for the eviction order) */
+        private volatile long lastUsed = System.nanoTime();
+
+        /**
+         * Constructs the cached rendering of the version
+         */
+        private Cached(String version) {
+            this.version = version;
+        }
+
+        /**
+         * Returns the number of cached bytes
+         *
+         * @return The size of the rendering ({@code 0} while in progress or when failed)
+         */
+        private long size(){
+            return (rendering.isDone() && !rendering.isCompletedExceptionally()) ? rendering.join().bytes.length : 0;
+        }
+    }
+
+    /** The directory of the definitions */
+    public final Path dir;
+    /** The limit of the cached bytes */
+    public final long cacheSize;
+    /** The HTTP server */
+    private final HttpServer server;
+    /** The request handling threads */
+    private final ExecutorService executor;
+    /** The loaded definitions by file (replaced as a whole on reload, so they are read without a lock) */
+    private volatile Map<Path, SeriesSpec> specs = Collections.emptyMap();
+    /** The time of the last check of the definition files (milliseconds since epoch, zero before the first) */
+    private volatile long lastCheck = 0;
+    /** The renderings by calendar name and format */
+    private final ConcurrentHashMap<String, Cached> cache = new ConcurrentHashMap<>();
+    /** The number of calendars rendered so far */
+    private final AtomicLong renderings = new AtomicLong();
+
+    /**
+     * Prepares the server (not started yet)
+     *
+     * @param dir The directory of the definitions
+     * @param port The port to listen on ({@code 0} for any free port)
+     * @param cacheSize The limit of the cached bytes
+     * @throws IOException When the port could not be bound
+     */
+    public FeedServer(Path dir, int port, long cacheSize) throws IOException {
+        if(!Files.isDirectory(dir)){
+            throw new IllegalArgumentException("The series directory is not a directory.");
+        }
+
+        this.dir = dir.toAbsolutePath();
+        this.cacheSize = cacheSize;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2, r -> {
+            Thread t = new Thread(r, "feed");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts serving
+     */
+    public void start(){
+        server.start();
+        System.out.printf("Serving calendars from \'%s\' at http://localhost:%d/\n", dir, getPort());
+    }
+
+    /**
+     * Stops serving
+     */
+    public void stop(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens on
+     *
+     * @return The port
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of calendars rendered so far (cache misses)
+     *
+     * @return The number of renderings
+     */
+    public long getRenderings(){
+        return renderings.get();
+    }
+
+    /**
+     * Answers a request
+     *
+     * @param exchange The request and response
+     * @throws IOException When the response could not be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            //Accept only reading
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+            if(!head && !method.equals("GET")){
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            //Find the requested calendar and format
+            String file = exchange.getRequestURI().getPath().substring(1);
+            Rendered rendered = null;
+            String contentType = null;
+            if(file.isEmpty()){
+                rendered = renderListing();
+                contentType = "text/plain; charset=utf-8";
+            }else if(file.endsWith(ICALENDAR_EXTENSION)){
+                rendered = get(file.substring(0, file.length() - ICALENDAR_EXTENSION.length()), Calendar.Format.ICALENDAR);
+                contentType = "text/calendar; charset=utf-8";
+            }else if(file.endsWith(JCAL_EXTENSION)){
+                rendered = get(file.substring(0, file.length() - JCAL_EXTENSION.length()), Calendar.Format.JCAL);
+                contentType = "application/calendar+json; charset=utf-8";
+            }
+            if(rendered == null){
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.getResponseHeaders().set("ETag", rendered.etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+            //Case: the client has the current version
+            if(matches(exchange.getRequestHeaders().getFirst("If-None-Match"), rendered.etag)){
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            //Case: send the calendar
+            if(head){
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(rendered.bytes.length));
+                exchange.sendResponseHeaders(200, -1);
+            }else{
+                exchange.sendResponseHeaders(200, rendered.bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(rendered.bytes);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.printf("[ERROR] Feed request \'%s\' failed (%s).\n", exchange.getRequestURI(), e.getLocalizedMessage());
+            if(exchange.getResponseCode() == -1){
+                exchange.sendResponseHeaders(500, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks whether an {@code If-None-Match} header matches the entity tag
+     *
+     * @param header The header value ({@code null} when missing)
+     * @param etag The current entity tag
+     * @return {@code true} when it matches, {@code false} otherwise
+     */
+    private static boolean matches(String header, String etag){
+        if(header == null){
+            return false;
+        }
+        for(String tag : header.split(",")){
+            String t = tag.trim();
+            if(t.startsWith("W/")){
+                t = t.substring(2);
+            }
+            if(t.equals("*") || t.equals(etag)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the current rendering of the calendar, rendering it when its definitions changed
+     * <p>
+     * Only the request that finds the version missing renders it (outside any lock), the others wait for it.
+     *
+     * @param name The calendar name
+     * @param format The format of the rendering
+     * @return The rendering or {@code null} when no definition names the calendar
+     * @throws IOException When the definitions could not be listed or the calendar could not be rendered
+     */
+    private Rendered get(String name, Calendar.Format format) throws IOException {
+        //Find the definitions of the calendar
+        List<SeriesSpec> series = definitions().values().stream()
+                .filter(s -> s.calendar.equals(name))
+                .sorted(Comparator.comparing(s -> s.file))
+                .collect(Collectors.toList());
+        if(series.isEmpty()){
+            return null;
+        }
+
+        //Reuse the cached rendering of the same version
+        String version = series.stream()
+                .map(s -> s.file.getFileName() + "@" + s.modified.toEpochMilli() + "/" + Long.toHexString(s.checksum))
+                .collect(Collectors.joining(","));
+        String key = name + "/" + format;
+        Cached created = new Cached(version);
+        Cached cached = cache.compute(key, (k, old) -> (old != null && old.version.equals(version)) ? old : created);
+
+        //Case: rendered or being rendered by another request
+        if(cached != created){
+            cached.lastUsed = System.nanoTime();
+            return await(cached);
+        }
+
+        //Render again
+        Rendered result;
+        try {
+            result = render(name, series, format);
+        } catch (IOException | RuntimeException e) {
+            cache.remove(key, created);
+            created.rendering.completeExceptionally(e);
+            throw e;
+        }
+        created.rendering.complete(result);
+
+        evict(created);
+        return result;
+    }
+
+    /**
+     * Waits for a rendering in progress
+     *
+     * @param cached The cached rendering
+     * @return The rendering
+     * @throws IOException When the rendering failed or the wait was interrupted
+     */
+    private static Rendered await(Cached cached) throws IOException {
+        try {
+            return cached.rendering.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rendering.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Evicts the least recently used renderings while the cache is over the limit
+     *
+     * @param kept The rendering to keep (the new one)
+     */
+    private void evict(Cached kept){
+        List<Map.Entry<String, Cached>> entries = new ArrayList<>(cache.entrySet());
+        long cachedBytes = entries.stream().mapToLong(e -> e.getValue().size()).sum();
+        if(cachedBytes <= cacheSize){
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+        for(Map.Entry<String, Cached> e : entries){
+            if(cachedBytes <= cacheSize){
+                break;
+            }
+            Cached c = e.getValue();
+            if(c != kept && c.rendering.isDone() && cache.remove(e.getKey(), c)){
+                cachedBytes -= c.size();
+            }
+        }
+    }
+
+    /**
+     * Returns the loaded definitions, reloading them when not checked within the check interval
+     *
+     * @return The definitions by file
+     * @throws IOException When the definitions could not be listed
+     */
+    private Map<Path, SeriesSpec> definitions() throws IOException {
+        if(System.currentTimeMillis() - lastCheck >= CHECK_INTERVAL){
+            refresh();
+        }
+        return specs;
+    }
+
+    /**
+     * Reloads the added and modified definitions and forgets the removed ones (at most once per check interval)
+     *
+     * @throws IOException When the definitions could not be listed
+     */
+    private synchronized void refresh() throws IOException {
+        //Skip when another request just reloaded them
+        long now = System.currentTimeMillis();
+        if(now - lastCheck < CHECK_INTERVAL){
+            return;
+        }
+
+        List<Path> files = SeriesSpec.list(dir);
+        Map<Path, SeriesSpec> reloaded = new HashMap<>(specs);
+        reloaded.keySet().retainAll(files);
+        for(Path file : files){
+            //Reload when the modification time or the contents changed (the time alone misses quick edits)
+            SeriesSpec loaded = reloaded.get(file);
+            if(loaded == null || !loaded.modified.equals(Files.getLastModifiedTime(file).toInstant())
+                    || loaded.checksum != SeriesSpec.checksum(Files.readAllBytes(file))){
+                try {
+                    reloaded.put(file, SeriesSpec.load(file));
+                } catch (IllegalArgumentException e) {
+                    System.out.printf("[ERROR] Series \'%s\' skipped: %s\n", file.getFileName(), e.getMessage());
+                    reloaded.remove(file);
+                }
+            }
+        }
+        //Publish the definitions before the check time, so requests skipping the reload see them
+        specs = reloaded;
+        lastCheck = now;
+    }
+
+    /**
+     * Renders the calendar
+     *
+     * @param name The calendar name
+     * @param series The definitions of the calendar
+     * @param format The format of the rendering
+     * @return The rendering
+     * @throws IOException When the calendar could not be rendered
+     */
+    private Rendered render(String name, List<SeriesSpec> series, Calendar.Format format) throws IOException {
+        //DEBUG: print render note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Rendering feed \'%s\' as %s from %d series\n", name, format, series.size());
+        }
+
+        renderings.incrementAndGet();
+
+        //Build the calendar in memory
+        Calendar cal = Calendar.empty(
+                dir.resolve(name + ((format == Calendar.Format.JCAL) ? JCAL_EXTENSION : ICALENDAR_EXTENSION)),
+                series.get(0).template.zone.zone,
+                name);
+        series.forEach(s -> s.toEvents().forEach(cal::addEvent));
+
+        //Write it in the format
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        if(format == Calendar.Format.JCAL){
+            out = new JCalWriter(out);
+        }
+        cal.write(out);
+        out.close();
+
+        byte[] contents = bytes.toByteArray();
+        return new Rendered(contents, tag(contents));
+    }
+
+    /**
+     * Renders the list of served calendars
+     *
+     * @return The rendering
+     * @throws IOException When the definitions could not be listed
+     */
+    private Rendered renderListing() throws IOException {
+        StringBuilder result = new StringBuilder();
+        definitions().values().stream()
+                .map(s -> s.calendar)
+                .distinct()
+                .sorted()
+                .forEach(c -> result.append(c).append(ICALENDAR_EXTENSION).append("\n")
+                        .append(c).append(JCAL_EXTENSION).append("\n"));
+
+        byte[] contents = result.toString().getBytes(StandardCharsets.UTF_8);
+        return new Rendered(contents, tag(contents));
+    }
+
+    /**
+     * Computes the entity tag of the contents
+     *
+     * @param contents The contents
+     * @return The quoted entity tag
+     */
+    private static String tag(byte[] contents){
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+            StringBuilder result = new StringBuilder("\"");
+            for(int i = 0; i < 16; i++){
+                result.append(String.format("%02x", digest[i]));
+            }
+            return result.append("\"").toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Serves the directory until the process is stopped
+     *
+     * @param dir The directory of the definitions
+     * @param port The port to listen on
+     * @throws IOException When the port could not be bound
+     */
+    public static void serve(String dir, int port) throws IOException {
+        new FeedServer(Paths.get(dir), port, DEFAULT_CACHE_SIZE).start();
+    }
+}
@@ -0,0 +1,186 @@
+package net.pilif0.calendar_generator;
+
+import javafx.beans.Observable;
+import javafx.beans.property.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Represents the values of the event form (the form controls are bound to these properties)
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class FormModel {
+    /** The event title */
+    public final StringProperty title = new SimpleStringProperty();
+    /** The event start date */
+    public final ObjectProperty<LocalDate> startDate = new SimpleObjectProperty<>();
+    /** The event start time (text) */
+    public final StringProperty startTime = new SimpleStringProperty();
+    /** The event end date */
+    public final ObjectProperty<LocalDate> endDate = new SimpleObjectProperty<>();
+    /** The event end time (text) */
+    public final StringProperty endTime = new SimpleStringProperty();
+    /** The time zone identifier */
+    public final StringProperty zone = new SimpleStringProperty(ZoneId.systemDefault().getId());
+    /** Whether to write local times */
+    public final BooleanProperty localTime = new SimpleBooleanProperty();
+    /** Whether to repeat on each day of the week (Monday first) */
+    public final BooleanProperty[] repeat = new BooleanProperty[7];
+    /** The repetition period */
+    public final ObjectProperty<Recurrence.Frequency> frequency = new SimpleObjectProperty<>();
+    /** The number of periods between the repetitions */
+    public final ObjectProperty<Integer> interval = new SimpleObjectProperty<>();
+    /** The ordinal of the repetition days in the month (monthly and yearly repetition) */
+    public final ObjectProperty<Integer> ordinal = new SimpleObjectProperty<>();
+    /** The repetition start date (inclusive) */
+    public final ObjectProperty<LocalDate> repeatFrom = new SimpleObjectProperty<>();
+    /** The repetition end date (exclusive) */
+    public final ObjectProperty<LocalDate> repeatTo = new SimpleObjectProperty<>();
+    /** The excluded dates (text) */
+    public final StringProperty exclusions = new SimpleStringProperty();
+    /** The excluded dates loaded from a file ({@code null} when none loaded) */
+    public final ObjectProperty<Exclusions> loadedExclusions = new SimpleObjectProperty<>();
+    /** Whether to write a single entry with a repetition rule */
+    public final BooleanProperty asRule = new SimpleBooleanProperty();
+    /** The event location */
+    public final StringProperty location = new SimpleStringProperty();
+    /** The event description */
+    public final StringProperty description = new SimpleStringProperty();
+    /** The event transparency */
+    public final BooleanProperty available = new SimpleBooleanProperty(true);
+
+    /**
+     * Prepares the model with the default values
+     */
+    public FormModel(){
+        for(int i = 0; i < repeat.length; i++){
+            repeat[i] = new SimpleBooleanProperty();
+        }
+        reset();
+    }
+
+    /**
+     * Resets the values to the defaults (time zone and transparency are kept)
+     */
+    public void reset(){
+        title.set("Untitled event");
+        startDate.set(Launcher.NOW_DATE);
+        startTime.set(Launcher.NOW_TIME.format(Launcher.TIME_FORMAT));
+        endDate.set(Launcher.NOW_DATE);
+        endTime.set(Launcher.NOW_TIME.plusHours(1).format(Launcher.TIME_FORMAT));
+        localTime.set(false);
+        Arrays.stream(repeat).forEach(r -> r.set(false));
+        frequency.set(Recurrence.Frequency.WEEKLY);
+        interval.set(1);
+        ordinal.set(1);
+        repeatFrom.set(Launcher.NOW_DATE);
+        repeatTo.set(Launcher.NOW_DATE.plusWeeks(1));
+        exclusions.set("");
+        loadedExclusions.set(null);
+        asRule.set(false);
+        location.set("");
+        description.set("");
+    }
+
+    /**
+     * Lists all the properties (to listen for any change)
+     *
+     * @return The properties
+     */
+    public List<Observable> properties(){
+        List<Observable> result = new ArrayList<>(Arrays.asList(
+                title, startDate, startTime, endDate, endTime, zone, localTime, frequency, interval, ordinal, repeatFrom,
+                repeatTo, exclusions, loadedExclusions, asRule, location, description, available));
+        Collections.addAll(result, repeat);
+        return result;
+    }
+
+    /**
+     * Converts the values into the event to write (repeating when repetition is requested)
+     *
+     * @return The event (template of the series when repeating)
+     */
+    public Event toTemplate(){
+        //Parse the times
+        LocalTime start = LocalTime.parse(startTime.get(), Launcher.TIME_FORMAT);
+        LocalTime end = LocalTime.parse(endTime.get(), Launcher.TIME_FORMAT);
+
+        //Find the repeat values for each day
+        boolean[] days = new boolean[repeat.length];
+        for(int i = 0; i < days.length; i++){
+            days[i] = repeat[i].get();
+        }
+
+        //Find the excluded dates (typed and loaded)
+        Exclusions excluded = Exclusions.parse(exclusions.get());
+        if(loadedExclusions.get() != null){
+            excluded.addAll(loadedExclusions.get());
+        }
+
+        //Prepare the event
+        Event event = new Event(
+                title.get(),
+                startDate.get(),
+                endDate.get(),
+                start,
+                end,
+                location.get(),
+                description.get(),
+                available.get());
+        Recurrence recurrence = new Recurrence(
+                frequency.get(), interval.get(), days, ordinal.get(), repeatFrom.get(), repeatTo.get(), excluded);
+
+        return event.inSeries(ZoneId.of(zone.get()), localTime.get(), recurrence);
+    }
+
+    /**
+     * Converts the values into the {@code Event} objects to write
+     *
+     * @return The {@code Event} objects
+     */
+    public List<Event> convert(){
+        //DEBUG: print the data
+        if(Main.debug) {
+            String debugMsg = (new StringBuilder("[DEBUG] Form -> Event conversion:")).append(System.lineSeparator())
+                    .append("Title: ").append(title.get()).append(System.lineSeparator())
+                    .append("Start date: ").append(Exclusions.DATE_FORMAT.format(startDate.get())).append(System.lineSeparator())
+                    .append("Start time: ").append(startTime.get()).append(System.lineSeparator())
+                    .append("End date: ").append(Exclusions.DATE_FORMAT.format(endDate.get())).append(System.lineSeparator())
+                    .append("End time: ").append(endTime.get()).append(System.lineSeparator())
+                    .append("Location: ").append(location.get()).append(System.lineSeparator())
+                    .append("Description: ").append(description.get()).append(System.lineSeparator())
+                    .append("Repeat: ").append(Arrays.stream(repeat).map(BooleanProperty::get).collect(Collectors.toList())).append(System.lineSeparator())
+                    .append("Repeat period: ").append(frequency.get()).append(" every ").append(interval.get()).append(" (day ordinal ").append(ordinal.get()).append(")").append(System.lineSeparator())
+                    .append("Repeat start date: ").append(Exclusions.DATE_FORMAT.format(repeatFrom.get())).append(System.lineSeparator())
+                    .append("Repeat end date: ").append(Exclusions.DATE_FORMAT.format(repeatTo.get())).append(System.lineSeparator())
+                    .append("Excluded dates: ").append(exclusions.get()).append(System.lineSeparator())
+                    .append("As rule: ").append(asRule.get()).append(System.lineSeparator())
+                    .append("Transparency: ").append((available.get()) ? "Available" : "Busy").append(System.lineSeparator())
+                    .append("Time zone: ").append(zone.get()).append(localTime.get() ? " (local times)" : "").append(System.lineSeparator())
+                    .toString();
+            System.out.println(debugMsg);
+        }
+
+        //Expand the repetition unless writing a rule
+        Event template = toTemplate();
+        List<Event> result = (template.recurrence == null || asRule.get())
+                ? Collections.singletonList(template)
+                : template.recurrence.expand(template);
+
+        //DEBUG: print number of events created
+        if(Main.debug){
+            System.out.printf("\nConverted form into %d event(s)\n", result.size());
+        }
+
+        return result;
+    }
+}
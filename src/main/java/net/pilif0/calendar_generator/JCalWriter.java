@@ -0,0 +1,592 @@
+package net.pilif0.calendar_generator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Writes calendars in the jCal format (RFC 7265, iCalendar as JSON)
+ * <p>
+ * iCalendar text written into this writer is converted line by line and the resulting JSON array elements are
+ * streamed to the underlying writer as soon as each line is complete, so no document tree is ever built. Events can
+ * also be written directly from their properties with {@link #writeEvent(Event)} (without printing and parsing their
+ * text). A jCal document holds a single top level component (the calendar), so any further top level component is
+ * skipped with its contents. Closing the writer completes the last line and closes the underlying writer.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class JCalWriter extends Writer {
+    /** The value types of the known properties (properties not listed are of the unknown type) */
+    private static final Map<String, String> TYPES = new HashMap<>();
+    /** The properties whose text values are lists (separated by commas) */
+    private static final Set<String> TEXT_LISTS = new HashSet<>(Arrays.asList("CATEGORIES", "RESOURCES"));
+    /** The recurrence rule parts with integer values */
+    private static final Set<String> INTEGER_PARTS = new HashSet<>(Arrays.asList(
+            "COUNT", "INTERVAL", "BYSECOND", "BYMINUTE", "BYHOUR", "BYMONTHDAY", "BYYEARDAY", "BYWEEKNO", "BYMONTH",
+            "BYSETPOS"));
+
+    static {
+        for(String name : new String[]{"DTSTART", "DTEND", "DTSTAMP", "CREATED", "LAST-MODIFIED", "EXDATE", "RDATE",
+                "RECURRENCE-ID", "DUE", "COMPLETED"}){
+            TYPES.put(name, "date-time");
+        }
+        for(String name : new String[]{"PRODID", "VERSION", "CALSCALE", "METHOD", "UID", "SUMMARY", "DESCRIPTION",
+                "LOCATION", "STATUS", "TRANSP", "CLASS", "CATEGORIES", "COMMENT", "CONTACT", "RELATED-TO",
+                "RESOURCES", "TZID", "TZNAME"}){
+            TYPES.put(name, "text");
+        }
+        for(String name : new String[]{"SEQUENCE", "PRIORITY", "PERCENT-COMPLETE", "REPEAT"}){
+            TYPES.put(name, "integer");
+        }
+        for(String name : new String[]{"URL", "TZURL", "SOURCE"}){
+            TYPES.put(name, "uri");
+        }
+        for(String name : new String[]{"ATTENDEE", "ORGANIZER"}){
+            TYPES.put(name, "cal-address");
+        }
+        TYPES.put("DURATION", "duration");
+        TYPES.put("TRIGGER", "duration");
+        TYPES.put("TZOFFSETFROM", "utc-offset");
+        TYPES.put("TZOFFSETTO", "utc-offset");
+        TYPES.put("RRULE", "recur");
+        TYPES.put("EXRULE", "recur");
+    }
+
+    /**
+     * Represents an open component
+     */
+    private static class Component {
+        /** Whether the properties are closed and subcomponents are being written */
+        private boolean inSubcomponents = false;
+        /** Whether nothing was written in the current list yet */
+        private boolean empty = true;
+    }
+
+    /** The writer to write the JSON to */
+    private final Writer out;
+    /** The open components (innermost first) */
+    private final Deque<Component> open = new ArrayDeque<>();
+    /** The current physical line */
+    private final StringBuilder line = new StringBuilder();
+    /** The last complete logical line (kept until it is known not to continue, {@code null} when none) */
+    private String pending = null;
+    /** Whether a top level component was written */
+    private boolean started = false;
+    /** The depth inside a skipped top level component ({@code 0} when none is being skipped) */
+    private int skipped = 0;
+
+    /**
+     * Prepares the writer
+     *
+     * @param out The writer to write the JSON to
+     */
+    public JCalWriter(Writer out){
+        this.out = out;
+    }
+
+    /**
+     * Accepts iCalendar text, converting each complete (unfolded) line
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for(int i = off; i < off + len; i++){
+            char c = cbuf[i];
+            if(c == '\n'){
+                endLine();
+            }else{
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * Accepts iCalendar text, converting each complete (unfolded) line
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for(int i = off; i < off + len; i++){
+            char c = str.charAt(i);
+            if(c == '\n'){
+                endLine();
+            }else{
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * Writes the event as a component of the open calendar (directly from its properties)
+     *
+     * @param e The event to write
+     * @throws IOException When the JSON could not be written
+     */
+    public void writeEvent(Event e) throws IOException {
+        //Complete the text written so far
+        completeText();
+
+        if(!beginComponent("VEVENT")){
+            return;
+        }
+        for(Event.Property p : e.getProperties()){
+            writeProperty(p.name, p.parameters, p.value);
+        }
+        endComponent();
+    }
+
+    /**
+     * Flushes the underlying writer (the last line is converted only once complete)
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Converts the last line, closes any components left open and closes the underlying writer
+     */
+    @Override
+    public void close() throws IOException {
+        completeText();
+        while(!open.isEmpty()){
+            endComponent();
+        }
+        out.write("\n");
+        out.close();
+    }
+
+    /**
+     * Treats the current physical line as complete
+     *
+     * @throws IOException When the JSON could not be written
+     */
+    private void endLine() throws IOException {
+        //Strip the carriage return
+        int length = line.length();
+        if(length > 0 && line.charAt(length - 1) == '\r'){
+            line.setLength(length - 1);
+        }
+
+        if(pending != null && line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t')){
+            //Case: continuation of a folded line
+            pending += line.substring(1);
+        }else{
+            //Case: new line, so the pending one is complete
+            if(pending != null){
+                convert(pending);
+            }
+            pending = line.toString();
+        }
+        line.setLength(0);
+    }
+
+    /**
+     * Converts all the text written so far (including an unterminated last line)
+     *
+     * @throws IOException When the JSON could not be written
+     */
+    private void completeText() throws IOException {
+        if(line.length() > 0){
+            endLine();
+        }
+        if(pending != null){
+            convert(pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * Converts a single unfolded iCalendar content line
+     *
+     * @param contentLine The line to convert
+     * @throws IOException When the JSON could not be written
+     */
+    private void convert(String contentLine) throws IOException {
+        if(contentLine.trim().isEmpty()){
+            return;
+        }
+
+        //Find the end of the name and the value separator (outside quoted parameter values)
+        int nameEnd = -1;
+        int colon = -1;
+        boolean quoted = false;
+        for(int i = 0; i < contentLine.length() && colon == -1; i++){
+            char c = contentLine.charAt(i);
+            if(c == '"'){
+                quoted = !quoted;
+            }else if(!quoted && (c == ';' || c == ':')){
+                if(nameEnd == -1){
+                    nameEnd = i;
+                }
+                if(c == ':'){
+                    colon = i;
+                }
+            }
+        }
+        if(colon == -1){
+            //DEBUG: print skip note
+            if(Main.debug){
+                System.out.printf("[DEBUG] Skipped malformed iCalendar line \'%s\'\n", contentLine);
+            }
+            return;
+        }
+
+        String name = contentLine.substring(0, nameEnd).toUpperCase();
+        String parameters = contentLine.substring(nameEnd, colon);
+        String value = contentLine.substring(colon + 1);
+
+        //Skip the contents of a skipped top level component
+        if(skipped > 0){
+            if(name.equals("BEGIN")){
+                skipped++;
+            }else if(name.equals("END")){
+                skipped--;
+            }
+            return;
+        }
+
+        if(name.equals("BEGIN")){
+            if(!beginComponent(value.trim())){
+                skipped = 1;
+            }
+        }else if(name.equals("END")){
+            if(!open.isEmpty()){
+                endComponent();
+            }
+        }else{
+            writeProperty(name, parameters, value);
+        }
+    }
+
+    /**
+     * Opens a component inside the innermost open component (or at the top level when none was written yet)
+     *
+     * @param name The component name
+     * @return {@code true} when opened, {@code false} when it would be a second top level component
+     * @throws IOException When the JSON could not be written
+     */
+    private boolean beginComponent(String name) throws IOException {
+        Component parent = open.peek();
+        if(parent == null){
+            //Reject further top level components (they can not follow the first in a single jCal array)
+            if(started){
+                //DEBUG: print skip note
+                if(Main.debug){
+                    System.out.printf("[DEBUG] Skipped extra top level component \'%s\'\n", name);
+                }
+                return false;
+            }
+            started = true;
+        }else{
+            //Close the parent properties before its first subcomponent
+            if(!parent.inSubcomponents){
+                out.write("\n],[");
+                parent.inSubcomponents = true;
+                parent.empty = true;
+            }
+            separate(parent);
+        }
+
+        out.write("[");
+        writeString(name.toLowerCase());
+        out.write(",[");
+        open.push(new Component());
+        return true;
+    }
+
+    /**
+     * Closes the innermost open component
+     *
+     * @throws IOException When the JSON could not be written
+     */
+    private void endComponent() throws IOException {
+        Component closed = open.pop();
+        out.write(closed.inSubcomponents ? "\n]]" : "\n],[]]");
+    }
+
+    /**
+     * Writes the separator before the next element of the current list of the component
+     *
+     * @param component The component
+     * @throws IOException When the JSON could not be written
+     */
+    private void separate(Component component) throws IOException {
+        out.write(component.empty ? "\n" : ",\n");
+        component.empty = false;
+    }
+
+    /**
+     * Writes a property of the innermost open component
+     * <p>
+     * Properties outside of components or after subcomponents can not be represented and are skipped.
+     *
+     * @param name The property name (upper case)
+     * @param parameters The property parameters (each including its leading separator)
+     * @param value The property value (escaped as in the iCalendar file)
+     * @throws IOException When the JSON could not be written
+     */
+    private void writeProperty(String name, String parameters, String value) throws IOException {
+        Component component = open.peek();
+        if(component == null || component.inSubcomponents){
+            return;
+        }
+        separate(component);
+
+        //Write the name and the parameters (the value type is written as the type instead)
+        String type = TYPES.getOrDefault(name, "unknown");
+        out.write("[");
+        writeString(name.toLowerCase());
+        out.write(",{");
+        boolean first = true;
+        for(String[] parameter : splitParameters(parameters)){
+            if(parameter[0].equals("VALUE")){
+                type = parameter[1].toLowerCase();
+                continue;
+            }
+            if(!first){
+                out.write(",");
+            }
+            first = false;
+            writeString(parameter[0].toLowerCase());
+            out.write(":");
+            writeString(parameter[1]);
+        }
+        out.write("},");
+
+        //Date-times with date values are dates
+        if(type.equals("date-time") && value.length() == 8){
+            type = "date";
+        }
+        writeString(type);
+
+        //Write the value(s) in the representation of the type
+        switch(type){
+            case "date":
+            case "date-time":
+                for(String v : value.split(",")){
+                    out.write(",");
+                    writeString(formatDatetime(v));
+                }
+                break;
+            case "utc-offset":
+                out.write(",");
+                writeString(formatOffset(value));
+                break;
+            case "integer":
+                out.write(",");
+                if(value.trim().matches("[+-]?\\d+")){
+                    out.write(Long.toString(Long.parseLong(value.trim().replace("+", ""))));
+                }else{
+                    writeString(value);
+                }
+                break;
+            case "recur":
+                out.write(",");
+                writeRecur(value);
+                break;
+            case "text":
+                if(TEXT_LISTS.contains(name)){
+                    for(String v : splitText(value)){
+                        out.write(",");
+                        writeString(unescape(v));
+                    }
+                }else{
+                    out.write(",");
+                    writeString(unescape(value));
+                }
+                break;
+            default:
+                out.write(",");
+                writeString(value);
+        }
+        out.write("]");
+    }
+
+    /**
+     * Writes a recurrence rule as a JSON object
+     *
+     * @param rule The iCalendar recurrence rule
+     * @throws IOException When the JSON could not be written
+     */
+    private void writeRecur(String rule) throws IOException {
+        out.write("{");
+        boolean first = true;
+        for(String part : rule.split(";")){
+            int equals = part.indexOf('=');
+            if(equals == -1){
+                continue;
+            }
+            String key = part.substring(0, equals).toUpperCase();
+            String[] values = part.substring(equals + 1).split(",");
+
+            if(!first){
+                out.write(",");
+            }
+            first = false;
+            writeString(key.toLowerCase());
+            out.write(":");
+
+            //Lists are arrays, single values are written as they are
+            if(values.length > 1){
+                out.write("[");
+            }
+            for(int i = 0; i < values.length; i++){
+                if(i > 0){
+                    out.write(",");
+                }
+                if(INTEGER_PARTS.contains(key) && values[i].matches("[+-]?\\d+")){
+                    out.write(Integer.toString(Integer.parseInt(values[i].replace("+", ""))));
+                }else if(key.equals("UNTIL")){
+                    writeString(formatDatetime(values[i]));
+                }else{
+                    writeString(values[i]);
+                }
+            }
+            if(values.length > 1){
+                out.write("]");
+            }
+        }
+        out.write("}");
+    }
+
+    /**
+     * Writes a JSON string
+     *
+     * @param s The string contents
+     * @throws IOException When the JSON could not be written
+     */
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            switch(c){
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if(c < 0x20){
+                        out.write(String.format("\\u%04x", (int) c));
+                    }else{
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Splits iCalendar parameters into names (upper case) and values (without quotes)
+     *
+     * @param parameters The parameters (each including its leading separator)
+     * @return The name and value pairs
+     */
+    private static List<String[]> splitParameters(String parameters){
+        List<String[]> result = new ArrayList<>();
+        int i = 0;
+        while(i < parameters.length()){
+            //Skip the separator and find the name
+            int equals = parameters.indexOf('=', i + 1);
+            if(equals == -1){
+                break;
+            }
+            String name = parameters.substring(i + 1, equals).toUpperCase();
+
+            //Find the value end (outside quotes)
+            int end = equals + 1;
+            boolean quoted = false;
+            while(end < parameters.length() && (quoted || parameters.charAt(end) != ';')){
+                if(parameters.charAt(end) == '"'){
+                    quoted = !quoted;
+                }
+                end++;
+            }
+
+            result.add(new String[]{name, parameters.substring(equals + 1, end).replace("\"", "")});
+            i = end;
+        }
+        return result;
+    }
+
+    /**
+     * Splits a text list at the separating commas (escaped commas are kept)
+     *
+     * @param value The escaped text list
+     * @return The escaped texts
+     */
+    private static List<String> splitText(String value){
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c == '\\'){
+                i++;
+            }else if(c == ','){
+                result.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(value.substring(start));
+        return result;
+    }
+
+    /**
+     * Removes the iCalendar text escaping
+     *
+     * @param value The escaped text
+     * @return The text
+     */
+    private static String unescape(String value){
+        if(value.indexOf('\\') == -1){
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c == '\\' && i + 1 < value.length()){
+                char next = value.charAt(++i);
+                result.append((next == 'n' || next == 'N') ? '\n' : next);
+            }else{
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Converts an iCalendar date ({@code yyyyMMdd}) or datetime ({@code yyyyMMdd'T'HHmmss}, optionally with
+     * {@code Z}) into the jCal representation (values of other shapes are kept as they are)
+     *
+     * @param value The iCalendar value
+     * @return The jCal value
+     */
+    private static String formatDatetime(String value){
+        String v = value.trim();
+        if(v.matches("\\d{8}(T\\d{6}Z?)?")){
+            String date = v.substring(0, 4) + "-" + v.substring(4, 6) + "-" + v.substring(6, 8);
+            if(v.length() == 8){
+                return date;
+            }
+            return date + "T" + v.substring(9, 11) + ":" + v.substring(11, 13) + ":" + v.substring(13);
+        }
+        return v;
+    }
+
+    /**
+     * Converts an iCalendar UTC offset ({@code +hhmm} or {@code +hhmmss}) into the jCal representation (values of
+     * other shapes are kept as they are)
+     *
+     * @param value The iCalendar value
+     * @return The jCal value
+     */
+    private static String formatOffset(String value){
+        String v = value.trim();
+        if(v.matches("[+-]\\d{4}(\\d{2})?")){
+            String result = v.substring(0, 3) + ":" + v.substring(3, 5);
+            return (v.length() == 7) ? result + ":" + v.substring(5) : result;
+        }
+        return v;
+    }
+}
@@ -1,10 +1,11 @@
 package net.pilif0.calendar_generator;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
-import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
@@ -14,13 +15,20 @@ import javafx.stage.Stage;
 import javafx.util.StringConverter;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Paths;
+import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Launches the GUI
@@ -58,6 +66,19 @@ public class Launcher extends Application {
             return LocalDate.parse(string, DATE_FORMAT);
         }
     };
+    /** The names of the day ordinals in a month (as in the repetition day ordinal input) */
+    public static final String[] ORDINAL_NAMES = {"Last", "", "First", "Second", "Third", "Fourth", "Fifth"};
+    /** The file chooser filters of iCalendar files (plain and compressed) */
+    public static final FileChooser.ExtensionFilter[] CALENDAR_FILTERS = {
+            new FileChooser.ExtensionFilter("iCalendar", "*.ics", "*.ics.gz"),
+            new FileChooser.ExtensionFilter("All files", "*.*")
+    };
+    /** The file chooser filters of new calendar files (iCalendar or jCal, plain or compressed) */
+    public static final FileChooser.ExtensionFilter[] SAVE_FILTERS = {
+            CALENDAR_FILTERS[0],
+            new FileChooser.ExtensionFilter("jCal (JSON)", "*.json", "*.json.gz"),
+            CALENDAR_FILTERS[1]
+    };
     /** The style for displaying an error in the status bar */
     public static final String STYLE_ERROR = "-fx-color: red;";
     /** The style for displaying info in the status bar */
@@ -65,12 +86,31 @@ public class Launcher extends Application {
     /** The style for displaying success in the status bar */
     public static final String STYLE_SUCCESS = "-fx-color: green;";
 
-    /** Whether debug mode is enabled */
-    public static boolean debug = false;
+    /** The delay after the last form change before the preview is computed (milliseconds) */
+    public static final long PREVIEW_DELAY = 300;
+
     /** The main window */
     private Stage window;
     /** The status message display label */
     private Label statusMsg;
+    /** The event form values */
+    private final FormModel model = new FormModel();
+    /** The executor computing the previews (off the FX thread) */
+    private final ScheduledExecutorService previewExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "preview");
+        t.setDaemon(true);
+        return t;
+    });
+    /** The scheduled preview computation ({@code null} when none scheduled yet) */
+    private ScheduledFuture<?> pendingPreview;
+    /** The number of the latest preview request (older results are dropped) */
+    private long previewGeneration = 0;
+    /** The preview display label */
+    private Label previewMsg;
+    /** The queued event series */
+    private final Session session = new Session();
+    /** The queued event series display */
+    private ListView<Session.Series> sessionList;
 
     /**
      * Parses the command line arguments and launches the gui
@@ -78,16 +118,15 @@ public class Launcher extends Application {
      * @param args Command line arguments
      */
     public static void main(String[] args){
-        //Parse the arguments
-        Arrays.stream(args)
-                .forEach(x -> {
-                    //Check debug flag
-                    if(x.equals("debug")){
-                        debug = true;
-                    }
-                });
-
-        //Launch the GUI
+        Main.main(args);
+    }
+
+    /**
+     * Launches the gui (the only entry point that loads JavaFX)
+     *
+     * @param args Command line arguments
+     */
+    static void launchGui(String[] args){
         launch(args);
     }
 
@@ -117,6 +156,7 @@ public class Launcher extends Application {
 
         //Fill the root node
         root.setCenter(form);
+        root.setRight(buildSessionPanel());
         root.setBottom(statusBar);
 
         //Finalize the window
@@ -126,10 +166,19 @@ public class Launcher extends Application {
         primaryStage.sizeToScene();
         primaryStage.show();
 
+        //Update the preview on any form change
+        model.properties().forEach(p -> p.addListener(o -> schedulePreview()));
+        schedulePreview();
+
         //Display done message
         displayInfo("Hover over field labels for help");
     }
 
+    @Override
+    public void stop() {
+        previewExecutor.shutdownNow();
+    }
+
     /**
      * Builds the event input form
      *
@@ -160,8 +209,9 @@ public class Launcher extends Application {
         result.add(titleL, 0, row);
 
         //Create title input
-        TextField titleField = new TextField("Untitled event");
+        TextField titleField = new TextField();
         titleField.setId("title");
+        titleField.textProperty().bindBidirectional(model.title);
         titleField.requestFocus();
         result.add(titleField, 1, row, 3, 1);
 
@@ -178,10 +228,12 @@ public class Launcher extends Application {
         DatePicker startDate = new DatePicker(NOW_DATE);
         startDate.setConverter(DATE_CONVERTER);
         startDate.setId("start-date");
+        startDate.valueProperty().bindBidirectional(model.startDate);
 
         //Create start time input
-        TextField startTime = new TextField(NOW_TIME.format(TIME_FORMAT));
+        TextField startTime = new TextField();
         startTime.setId("start-time");
+        startTime.textProperty().bindBidirectional(model.startTime);
         startTime.setPrefColumnCount(5);
 
         //Add start datetime row
@@ -200,15 +252,40 @@ public class Launcher extends Application {
         DatePicker endDate = new DatePicker(NOW_DATE);
         endDate.setConverter(DATE_CONVERTER);
         endDate.setId("end-date");
+        endDate.valueProperty().bindBidirectional(model.endDate);
 
         //Create end time input
-        TextField endTime = new TextField(NOW_TIME.plusHours(1).format(TIME_FORMAT));
+        TextField endTime = new TextField();
         endTime.setId("end-time");
+        endTime.textProperty().bindBidirectional(model.endTime);
         endTime.setPrefColumnCount(5);
 
         //Add end datetime row
         result.addRow(++row, endL, endDate, endTime);
 
+        //Create time zone label and give it a tooltip
+        Label zoneL = new Label("Time zone:");
+        Tooltip zoneT = new Tooltip();
+        zoneT.setText("Time zone of the dates and times above\n" +
+                "Times are written in UTC unless local times are requested");
+        zoneL.setTooltip(zoneT);
+
+        //Create time zone input
+        ComboBox<String> zone = new ComboBox<>(FXCollections.observableArrayList(new TreeSet<>(ZoneId.getAvailableZoneIds())));
+        zone.setEditable(true);
+        zone.setId("zone");
+        zone.valueProperty().bindBidirectional(model.zone);
+
+        //Create local time checkbox
+        CheckBox localTime = new CheckBox("Local times");
+        localTime.setId("local-time");
+        localTime.selectedProperty().bindBidirectional(model.localTime);
+        localTime.setTooltip(new Tooltip("Write local times with the time zone instead of UTC times\n" +
+                "A definition of the time zone is added to the calendar"));
+
+        //Add time zone row
+        result.addRow(++row, zoneL, zone, localTime);
+
         //Add separation row
         Label empty1 = new Label();
         result.addRow(++row, empty1);
@@ -217,38 +294,85 @@ public class Launcher extends Application {
         Label repetitionL = new Label("Repetition:");
         Tooltip repetitionT = new Tooltip();
         repetitionT.setText("Tick days on which to repeat\n" +
-                "When at least one set, repetition date will override event date");
+                "When at least one set (or repeating monthly or yearly), repetition date will override event date");
         repetitionL.setTooltip(repetitionT);
         result.add(repetitionL, 0, ++row);
 
         //Add a checkbox for each day of the week
-        CheckBox boxMo = new CheckBox("Monday");
-        boxMo.setId("box-mo");
-        result.add(boxMo, 1, row);
-        CheckBox boxTu = new CheckBox("Tuesday");
-        boxTu.setId("box-tu");
-        result.add(boxTu, 1, ++row);
-        CheckBox boxWe = new CheckBox("Wednesday");
-        boxWe.setId("box-we");
-        result.add(boxWe, 1, ++row);
-        CheckBox boxTh = new CheckBox("Thursday");
-        boxTh.setId("box-th");
-        result.add(boxTh, 1, ++row);
-        CheckBox boxFr = new CheckBox("Friday");
-        boxFr.setId("box-fr");
-        result.add(boxFr, 1, ++row);
-        CheckBox boxSa = new CheckBox("Saturday");
-        boxSa.setId("box-sa");
-        result.add(boxSa, 1, ++row);
-        CheckBox boxSu = new CheckBox("Sunday");
-        boxSu.setId("box-su");
-        result.add(boxSu, 1, ++row);
+        String[] dayNames = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+        for(int i = 0; i < dayNames.length; i++){
+            CheckBox box = new CheckBox(dayNames[i]);
+            box.setId("box-" + Recurrence.DAY_NAMES[i].toLowerCase());
+            box.selectedProperty().bindBidirectional(model.repeat[i]);
+            result.add(box, 1, (i == 0) ? row : ++row);
+        }
+
+        //Create repetition period label
+        Label periodL = new Label("Every:");
+        periodL.setTooltip(new Tooltip("Repeat every n-th week, month or year (counted from the repetition start)\n" +
+                "Monthly and yearly: on the chosen ticked days in the month, or on the day of the repetition start\n" +
+                "when no day is ticked (yearly in the month of the repetition start)"));
+
+        //Create repetition interval input
+        Spinner<Integer> interval = new Spinner<>(1, 99, 1);
+        interval.setEditable(true);
+        interval.setId("repetition-interval");
+        interval.getValueFactory().setConverter(new StringConverter<Integer>() {
+            @Override
+            public String toString(Integer object) {
+                return (object == null) ? "" : object.toString();
+            }
+
+            @Override
+            public Integer fromString(String string) {
+                //Keep the current value when the typed text is not a number
+                String trimmed = string.trim();
+                return trimmed.matches("\\d{1,9}") ? Integer.valueOf(trimmed) : interval.getValue();
+            }
+        });
+        interval.getValueFactory().valueProperty().bindBidirectional(model.interval);
+
+        //Create repetition frequency input
+        ComboBox<Recurrence.Frequency> frequency = new ComboBox<>(FXCollections.observableArrayList(Recurrence.Frequency.values()));
+        frequency.setId("repetition-frequency");
+        frequency.setConverter(new StringConverter<Recurrence.Frequency>() {
+            @Override
+            public String toString(Recurrence.Frequency object) {
+                return (object == null) ? "" : object.name().charAt(0) + object.name().substring(1).toLowerCase();
+            }
+
+            @Override
+            public Recurrence.Frequency fromString(String string) {
+                return Recurrence.Frequency.valueOf(string.toUpperCase());
+            }
+        });
+        frequency.valueProperty().bindBidirectional(model.frequency);
+
+        //Create repetition day ordinal input
+        ComboBox<Integer> ordinal = new ComboBox<>(FXCollections.observableArrayList(1, 2, 3, 4, 5, Recurrence.LAST));
+        ordinal.setId("repetition-ordinal");
+        ordinal.setConverter(new StringConverter<Integer>() {
+            @Override
+            public String toString(Integer object) {
+                return (object == null) ? "" : ORDINAL_NAMES[object + 1] + " ticked day(s) of the month";
+            }
+
+            @Override
+            public Integer fromString(String string) {
+                return Arrays.asList(ORDINAL_NAMES).indexOf(string.split(" ")[0]) - 1;
+            }
+        });
+        ordinal.valueProperty().bindBidirectional(model.ordinal);
+        ordinal.disableProperty().bind(model.frequency.isEqualTo(Recurrence.Frequency.WEEKLY));
+
+        //Add repetition period row
+        result.addRow(++row, periodL, interval, frequency, ordinal);
 
         //Create repetition start date label
         Label repetitionStartL = new Label("From:");
         Tooltip repetitionStartT = new Tooltip();
         repetitionStartT.setText("Repetition start date (inclusive)\n" +
-                "Applies when at least one repetition day is set\n" +
+                "Applies when repeating\n" +
                 "Overrides the event date when used\n" +
                 "Event duration is preserved");
         repetitionStartL.setTooltip(repetitionStartT);
@@ -257,6 +381,7 @@ public class Launcher extends Application {
         DatePicker repetitionStart = new DatePicker(NOW_DATE);
         repetitionStart.setConverter(DATE_CONVERTER);
         repetitionStart.setId("repetition-start");
+        repetitionStart.valueProperty().bindBidirectional(model.repeatFrom);
 
         //Add repetition start date row
         result.addRow(++row, repetitionStartL, repetitionStart);
@@ -265,7 +390,7 @@ public class Launcher extends Application {
         Label repetitionEndL = new Label("To:");
         Tooltip repetitionEndT = new Tooltip();
         repetitionEndT.setText("Repetition end date (exclusive)\n" +
-                "Applies when at least one repetition day is set\n" +
+                "Applies when repeating\n" +
                 "Overrides the event date when used\n" +
                 "Event duration is preserved");
         repetitionEndL.setTooltip(repetitionEndT);
@@ -274,10 +399,44 @@ public class Launcher extends Application {
         DatePicker repetitionEnd = new DatePicker(NOW_DATE.plusWeeks(1));
         repetitionEnd.setConverter(DATE_CONVERTER);
         repetitionEnd.setId("repetition-end");
+        repetitionEnd.valueProperty().bindBidirectional(model.repeatTo);
 
         //Add repetition end date row
         result.addRow(++row, repetitionEndL, repetitionEnd);
 
+        //Create exclusions label
+        Label exclusionsL = new Label("Except:");
+        Tooltip exclusionsT = new Tooltip();
+        exclusionsT.setText("Dates on which not to repeat (holidays, breaks, ...)\n" +
+                "Comma separated dates (yyyy-mm-dd) and inclusive ranges (yyyy-mm-dd..yyyy-mm-dd)\n" +
+                "Dates of events in another iCalendar file can be added by loading it");
+        exclusionsL.setTooltip(exclusionsT);
+
+        //Create exclusions input
+        TextField exclusions = new TextField();
+        exclusions.setId("exclusions");
+        exclusions.textProperty().bindBidirectional(model.exclusions);
+
+        //Create exclusions load button (shows the number of loaded dates)
+        Button exclusionsB = new Button("Load...");
+        exclusionsB.setId("exclusions-load-button");
+        exclusionsB.setOnAction(e -> loadExclusions());
+        model.loadedExclusions.addListener((o, before, after) ->
+                exclusionsB.setText((after == null) ? "Load..." : after.size() + " loaded"));
+
+        //Add exclusions row
+        result.add(exclusionsL, 0, ++row);
+        result.add(exclusions, 1, row, 2, 1);
+        result.add(exclusionsB, 3, row);
+
+        //Create repetition rule checkbox
+        CheckBox repetitionRule = new CheckBox("As single entry");
+        repetitionRule.setId("repetition-rule");
+        repetitionRule.selectedProperty().bindBidirectional(model.asRule);
+        repetitionRule.setTooltip(new Tooltip("Write one entry with a repetition rule instead of one entry per day\n" +
+                "Excluded dates are written as exceptions of the rule"));
+        result.add(repetitionRule, 1, ++row, 2, 1);
+
         //Add separation row
         Label empty2 = new Label();
         result.addRow(++row, empty2);
@@ -289,6 +448,7 @@ public class Launcher extends Application {
         //Add location input
         TextField location = new TextField();
         location.setId("location");
+        location.textProperty().bindBidirectional(model.location);
         result.add(location, 1, row, 3, 1);
 
         //Add description label
@@ -298,6 +458,7 @@ public class Launcher extends Application {
         //Add description input
         TextArea description = new TextArea();
         description.setId("description");
+        description.textProperty().bindBidirectional(model.description);
         result.add(description, 1, row, 3, 2);
 
         //Iterate row again because of row span of description
@@ -320,273 +481,392 @@ public class Launcher extends Application {
         transparencyAvail.setToggleGroup(transparencyGroup);
         transparencyBusy.setToggleGroup(transparencyGroup);
         transparencyAvail.setSelected(true);
+        transparencyAvail.selectedProperty().bindBidirectional(model.available);
+        transparencyBusy.setSelected(!model.available.get());
         result.add(transparencyAvail, 1, row, 1, 1);
         result.add(transparencyBusy, 1, ++row, 1, 1);
 
         //Add reset button
         Button resetB = new Button("Reset");
         resetB.setId("reset-button");
-        resetB.setOnAction(e -> reset(result));
+        resetB.setOnAction(e -> reset());
         result.add(resetB, 0, ++row, 1, 1);
 
         //Create export to existing button
         Button exportToExistingB = new Button("Export to existing");
         exportToExistingB.setId("export-to-existing-button");
-        exportToExistingB.setOnAction(e -> exportToExisting(result));
+        exportToExistingB.setOnAction(e -> exportToExisting());
 
         //Export export to new button
         Button exportToNewB = new Button("Export to new");
         exportToNewB.setId("export-to-new-button");
-        exportToNewB.setOnAction(e -> exportToNew(result));
+        exportToNewB.setOnAction(e -> exportToNew());
 
         //Add both export buttons to the right-bottom corner
         HBox exportButtons = new HBox(exportToExistingB, exportToNewB);
         exportButtons.setAlignment(Pos.BASELINE_RIGHT);
         result.add(exportButtons, 3, row);
 
+        //Add preview label
+        Label previewL = new Label("Preview:");
+        Tooltip previewT = new Tooltip();
+        previewT.setText("Events the form would generate\n" +
+                "Updated shortly after the form stops changing");
+        previewL.setTooltip(previewT);
+        previewMsg = new Label();
+        previewMsg.setId("preview");
+        result.add(previewL, 0, ++row, 1, 1);
+        result.add(previewMsg, 1, row, 3, 1);
+
         return result;
     }
 
     /**
-     * Converts information from the form into a list of {@code Event} objects
+     * Builds the session panel (queue of series to write together)
      *
-     * @param root The root of the form
-     * @return The {@code Event} objects
+     * @return The session panel scene graph
      */
-    private static List<Event> convert(Parent root){
-        //Find the title
-        String title = ((TextField) root.lookup("#title")).getText();
-
-        //Find the start date
-        LocalDate startDate = ((DatePicker) root.lookup("#start-date")).getValue();
-
-        //Find the end date
-        LocalDate endDate = ((DatePicker) root.lookup("#end-date")).getValue();
-
-        //Find the start time
-        LocalTime startTime = LocalTime.parse(((TextField) root.lookup("#start-time")).getText(), TIME_FORMAT);
-
-        //Find the end time
-        LocalTime endTime = LocalTime.parse(((TextField) root.lookup("#end-time")).getText(), TIME_FORMAT);
-
-        //Find the location
-        String location = ((TextField) root.lookup("#location")).getText();
-
-        //Find the description
-        String description = ((TextArea) root.lookup("#description")).getText();
-
-        //Find the repeat values for each day
-        boolean[] repeat = new boolean[7];
-        repeat[0] = ((CheckBox) root.lookup("#box-mo")).isSelected();
-        repeat[1] = ((CheckBox) root.lookup("#box-tu")).isSelected();
-        repeat[2] = ((CheckBox) root.lookup("#box-we")).isSelected();
-        repeat[3] = ((CheckBox) root.lookup("#box-th")).isSelected();
-        repeat[4] = ((CheckBox) root.lookup("#box-fr")).isSelected();
-        repeat[5] = ((CheckBox) root.lookup("#box-sa")).isSelected();
-        repeat[6] = ((CheckBox) root.lookup("#box-su")).isSelected();
-        boolean shouldRepeat = repeat[0] || repeat[1] || repeat[2] || repeat[3] || repeat[4] || repeat[5] || repeat[6];
-
-        //Find the repeat from date
-        LocalDate repeatFrom = ((DatePicker) root.lookup("#repetition-start")).getValue();
-
-        //Find the repeat to date
-        LocalDate repeatTo = ((DatePicker) root.lookup("#repetition-end")).getValue();
-
-        //Find the transparency
-        boolean available = ((RadioButton) root.lookup("#transparency-available")).isSelected();
-
-        //DEBUG: print the data
-        if(debug) {
-            String debugMsg = (new StringBuilder("[DEBUG] Form -> Event conversion:")).append(System.lineSeparator())
-                    .append("Title: ").append(title).append(System.lineSeparator())
-                    .append("Start date: ").append(DATE_FORMAT.format(startDate)).append(System.lineSeparator())
-                    .append("Start time: ").append(TIME_FORMAT.format(startTime)).append(System.lineSeparator())
-                    .append("End date: ").append(DATE_FORMAT.format(endDate)).append(System.lineSeparator())
-                    .append("End time: ").append(TIME_FORMAT.format(endTime)).append(System.lineSeparator())
-                    .append("Location: ").append(location).append(System.lineSeparator())
-                    .append("Description: ").append(description).append(System.lineSeparator())
-                    .append("Repeat: ").append(Arrays.toString(repeat)).append(System.lineSeparator())
-                    .append("Repeat start date: ").append(DATE_FORMAT.format(repeatFrom)).append(System.lineSeparator())
-                    .append("Repeat end date: ").append(DATE_FORMAT.format(repeatTo)).append(System.lineSeparator())
-                    .append("Transparency: ").append((available) ? "Available" : "Busy").append(System.lineSeparator())
-                    .toString();
-            System.out.println(debugMsg);
-        }
+    public Node buildSessionPanel(){
+        //Create session label and give it a tooltip
+        Label sessionL = new Label("Session:");
+        Tooltip sessionT = new Tooltip();
+        sessionT.setText("Series queued to be written together\n" +
+                "Add the current form as often as needed, then flush the whole session at once");
+        sessionL.setTooltip(sessionT);
+
+        //Create the queued series list
+        sessionList = new ListView<>();
+        sessionList.setId("session-list");
+        sessionList.setPrefWidth(250);
+        VBox.setVgrow(sessionList, Priority.ALWAYS);
+
+        //Create add button
+        Button addB = new Button("Add form");
+        addB.setId("session-add-button");
+        addB.setOnAction(e -> addToSession());
+
+        //Create remove button
+        Button removeB = new Button("Remove");
+        removeB.setId("session-remove-button");
+        removeB.setOnAction(e -> removeFromSession());
+
+        //Create flush buttons
+        Button flushToExistingB = new Button("Flush to existing");
+        flushToExistingB.setId("session-flush-to-existing-button");
+        flushToExistingB.setOnAction(e -> flushSession(false));
+        Button flushToNewB = new Button("Flush to new");
+        flushToNewB.setId("session-flush-to-new-button");
+        flushToNewB.setOnAction(e -> flushSession(true));
+
+        //Lay the panel out
+        VBox result = new VBox(5,
+                sessionL,
+                sessionList,
+                new HBox(5, addB, removeB),
+                new HBox(5, flushToExistingB, flushToNewB));
+        result.setPadding(new Insets(10));
 
-        //Prepare result
-        List<Event> result = new ArrayList<>();
-
-        //Handle repetition
-        if(shouldRepeat){
-            //Case: repetition requested
-
-            //Iterate for each day between bounds (inclusive start, exclusive end)
-            LocalDate current = repeatFrom;
-            while(current.isEqual(repeatFrom)
-                    || (current.isAfter(repeatFrom) && current.isBefore(repeatTo))){
-                //Check whether that day of the week should repeat
-                if(repeat[current.getDayOfWeek().getValue() - 1]){
-                    //Create the event at that day
-                    Event event = new Event(
-                            title,
-                            current,
-                            current.plusDays(endDate.toEpochDay() - startDate.toEpochDay()),
-                            startTime,
-                            endTime,
-                            location,
-                            description,
-                            available);
-                    result.add(event);
-                }
+        return result;
+    }
 
-                //Increase day
-                current = current.plusDays(1);
-            }
-        }else{
-            //Case: no repetition
-            Event event = new Event(
-                    title,
-                    startDate,
-                    endDate,
-                    startTime,
-                    endTime,
-                    location,
-                    description,
-                    available);
-            result.add(event);
+    /**
+     * Schedules the preview computation after the form stops changing (called on the FX thread)
+     */
+    private void schedulePreview(){
+        //Drop the computation scheduled for an earlier change
+        long generation = ++previewGeneration;
+        if(pendingPreview != null){
+            pendingPreview.cancel(false);
         }
 
-        //DEBUG: print number of events created
-        if(debug){
-            System.out.printf("\nConverted form into %d event(s)\n", result.size());
+        //Prepare the event (cheap, reads the form)
+        Event template;
+        boolean asRule = model.asRule.get();
+        try {
+            template = model.toTemplate();
+        }catch(IllegalArgumentException e){
+            previewMsg.setText((e.getMessage() != null) ? e.getMessage() : "Invalid form values");
+            return;
+        }catch(DateTimeException | NullPointerException e){
+            previewMsg.setText("Invalid form values");
+            return;
         }
 
-        return result;
+        //Compute the preview in the background and show it unless the form changed since
+        pendingPreview = previewExecutor.schedule(() -> {
+            Preview preview = Preview.of(template, asRule);
+            Platform.runLater(() -> {
+                if(generation == previewGeneration){
+                    previewMsg.setText(preview.toString());
+                }
+            });
+        }, PREVIEW_DELAY, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Exports the event(s) to a new iCalendar file
-     *
-     * @param form The root of the event form
      */
-    private void exportToNew(Parent form){
+    private void exportToNew(){
         //DEBUG: print message
-        if(debug){
+        if(Main.debug){
             System.out.println("[DEBUG] \"Export to new\" button pressed");
         }
 
+        //Convert the form to events
+        List<Event> events = convertForm();
+        if(events == null) return;      //Skip when the form can not be converted
+
+        //Select the new file
+        ZoneId zone = formZone();
+        if(zone == null) return;        //Skip when the time zone is unknown
+        Calendar cal = chooseNewCalendar(zone);
+        if(cal == null) return;         //Skip on cancel or error
+
+        //Write to the calendar
+        cal.addEvents(events.toArray(new Event[0]));
+        displaySaveResult(cal.save(), cal);
+    }
+
+    /**
+     * Lets the user choose a new iCalendar file and creates it
+     *
+     * @param zone The calendar time zone
+     * @return The created calendar or {@code null} on cancel or error (error is displayed)
+     */
+    private Calendar chooseNewCalendar(ZoneId zone){
         //Select the new file
         FileChooser fc = new FileChooser();
         fc.setTitle("Save iCalendar");
         fc.setInitialDirectory(Paths.get(System.getProperty("user.home")).toFile());
         fc.setInitialFileName("calendar.ics");
+        fc.getExtensionFilters().addAll(SAVE_FILTERS);
         File file = fc.showSaveDialog(window);
-        if(file == null) return;        //Skip on cancel
-        Calendar cal = Calendar.createFile(file.toPath());
+        if(file == null) return null;   //Skip on cancel
+        Calendar cal = Calendar.createFile(file.toPath(), zone);
 
         //Check calendar exists
         if(cal == null){
             //Case: calendar was not loaded
             displayError("Calendar could not be loaded.");
-            return;
         }
 
-        //Convert the form to events
-        List<Event> events = convert(form);
+        return cal;
+    }
 
-        //Write to the calendar
-        cal.addEvents(events.toArray(new Event[0]));
-        if(cal.save()){
-            displaySuccess("Events saved to \'"+file.getAbsolutePath()+"\'.");
+    /**
+     * Lets the user choose an existing iCalendar file and opens it
+     *
+     * @return The opened calendar or {@code null} on cancel or error (error is displayed)
+     */
+    private Calendar chooseExistingCalendar(){
+        //Select the file
+        FileChooser fc = new FileChooser();
+        fc.setTitle("Open iCalendar");
+        fc.setInitialDirectory(Paths.get(System.getProperty("user.home")).toFile());
+        fc.setInitialFileName("calendar.ics");
+        fc.getExtensionFilters().addAll(CALENDAR_FILTERS);
+        File file = fc.showOpenDialog(window);
+        if(file == null) return null;   //Skip on cancel
+
+        //Check the file is well-formed before writing to it
+        try {
+            Validator.Report report = Validator.validate(file.toPath());
+            if(!report.isValid()){
+                //DEBUG: print the report
+                if(Main.debug){
+                    System.out.print(report);
+                }
+                displayError(String.format("Calendar is not valid (%d problem(s), first: %s).",
+                        report.problemCount, report.problems.get(0)));
+                return null;
+            }
+        } catch (IOException e) {
+            displayError("Calendar could not be loaded.");
+            return null;
+        }
+
+        try {
+            return Calendar.open(file.toPath());
+        }catch(IllegalArgumentException e){
+            displayError("Calendar could not be loaded.");
+            return null;
+        }
+    }
+
+    /**
+     * Displays the result of saving a calendar
+     *
+     * @param success Whether the save succeeded
+     * @param cal The saved calendar
+     */
+    private void displaySaveResult(boolean success, Calendar cal){
+        if(success){
+            displaySuccess("Events saved to \'" + cal.path + "\'.");
         }else{
-            displayError("Could not saved events to \'" + file.getAbsolutePath() + "\'.");
+            displayError("Could not saved events to \'" + cal.path + "\'.");
         }
     }
 
     /**
-     * Resets the event form
+     * Converts the form to events, displaying the problem when it can not be converted (e.g. no occurrences)
      *
-     * @param form The root of the event form
+     * @return The events or {@code null} when the form can not be converted
      */
-    private static void reset(Parent form){
-        //DEBUG: print message
-        if(debug){
-            System.out.println("[DEBUG] \"Reset\" button pressed");
+    private List<Event> convertForm(){
+        try {
+            return model.convert();
+        }catch(IllegalArgumentException e){
+            displayError(e.getMessage());
+            return null;
+        }catch(DateTimeException e){
+            displayError("Invalid form values (" + e.getMessage() + ").");
+            return null;
+        }
+    }
+
+    /**
+     * Finds the time zone chosen in the form, displaying the problem when it is not known (the box is editable)
+     *
+     * @return The time zone or {@code null} when not known
+     */
+    private ZoneId formZone(){
+        try {
+            return ZoneId.of(model.zone.get());
+        }catch(DateTimeException | NullPointerException e){
+            displayError("Unknown time zone \'" + model.zone.get() + "\'.");
+            return null;
         }
+    }
 
-        //Reset the title
-        ((TextField) form.lookup("#title")).setText("Untitled event");
+    /**
+     * Converts the form and adds the event(s) to the session
+     */
+    private void addToSession(){
+        //DEBUG: print message
+        if(Main.debug){
+            System.out.println("[DEBUG] \"Add to session\" button pressed");
+        }
 
-        //Reset the start date
-        ((DatePicker) form.lookup("#start-date")).setValue(NOW_DATE);
+        //Convert and queue the form
+        List<Event> events = convertForm();
+        if(events == null) return;      //Skip when the form can not be converted
+        Session.Series series = session.add(model.title.get(), events);
+        refreshSession();
+        displayInfo("Added " + series + " to session.");
+    }
 
-        //Reset the end date
-        ((DatePicker) form.lookup("#end-date")).setValue(NOW_DATE);
+    /**
+     * Removes the selected series from the session
+     */
+    private void removeFromSession(){
+        int selected = sessionList.getSelectionModel().getSelectedIndex();
+        if(selected < 0) return;        //Skip when nothing is selected
+        session.remove(selected);
+        refreshSession();
+    }
 
-        //Reset the start time
-        ((TextField) form.lookup("#start-time")).setText(NOW_TIME.format(TIME_FORMAT));
+    /**
+     * Writes the whole session to a calendar in a single save
+     *
+     * @param toNew Whether to create a new file instead of opening an existing one
+     */
+    private void flushSession(boolean toNew){
+        //DEBUG: print message
+        if(Main.debug){
+            System.out.printf("[DEBUG] \"Flush to %s\" button pressed\n", toNew ? "new" : "existing");
+        }
 
-        //Reset the end time
-        ((TextField) form.lookup("#end-time")).setText(NOW_TIME.plusHours(1).format(TIME_FORMAT));
+        //Check there is something to flush
+        if(session.isEmpty()){
+            displayError("The session is empty.");
+            return;
+        }
 
-        //Reset the location
-        ((TextField) form.lookup("#location")).setText("");
+        //Select the calendar
+        ZoneId zone = toNew ? formZone() : null;
+        if(toNew && zone == null) return;   //Skip when the time zone is unknown
+        Calendar cal = toNew ? chooseNewCalendar(zone) : chooseExistingCalendar();
+        if(cal == null) return;         //Skip on cancel or error
 
-        //Reset the description
-        ((TextArea) form.lookup("#description")).setText("");
+        //Write the whole session
+        displaySaveResult(session.flush(cal), cal);
+        refreshSession();
+    }
 
-        //Reset the repeat values for each day
-        ((CheckBox) form.lookup("#box-mo")).setSelected(false);
-        ((CheckBox) form.lookup("#box-tu")).setSelected(false);
-        ((CheckBox) form.lookup("#box-we")).setSelected(false);
-        ((CheckBox) form.lookup("#box-th")).setSelected(false);
-        ((CheckBox) form.lookup("#box-fr")).setSelected(false);
-        ((CheckBox) form.lookup("#box-sa")).setSelected(false);
-        ((CheckBox) form.lookup("#box-su")).setSelected(false);
+    /**
+     * Updates the session display to match the session
+     */
+    private void refreshSession(){
+        sessionList.getItems().setAll(session.getSeries());
+    }
 
-        //Reset the repeat from date
-        ((DatePicker) form.lookup("#repetition-start")).setValue(NOW_DATE);
+    /**
+     * Resets the event form
+     */
+    private void reset(){
+        //DEBUG: print message
+        if(Main.debug){
+            System.out.println("[DEBUG] \"Reset\" button pressed");
+        }
 
-        //Reset the repeat to date
-        ((DatePicker) form.lookup("#repetition-end")).setValue(NOW_DATE.plusWeeks(1));
+        model.reset();
     }
 
     /**
-     * Exports the event(s) into an existing iCalendar file
-     *
-     * @param form The root of the event form
+     * Loads excluded dates from an iCalendar file into the form
      */
-    private void exportToExisting(Parent form){
+    private void loadExclusions(){
         //DEBUG: print message
-        if(debug){
-            System.out.println("[DEBUG] \"Export to existing\" button pressed");
+        if(Main.debug){
+            System.out.println("[DEBUG] \"Load exclusions\" button pressed");
         }
 
+        //Check the time zone the dates are taken in
+        ZoneId zone = formZone();
+        if(zone == null) return;        //Skip when the time zone is unknown
+
         //Select the file
         FileChooser fc = new FileChooser();
-        fc.setTitle("Open iCalendar");
+        fc.setTitle("Open iCalendar with excluded dates");
         fc.setInitialDirectory(Paths.get(System.getProperty("user.home")).toFile());
-        fc.setInitialFileName("calendar.ics");
+        fc.getExtensionFilters().addAll(CALENDAR_FILTERS);
         File file = fc.showOpenDialog(window);
         if(file == null) return;        //Skip on cancel
-        Calendar cal = null;
+
+        //Read the dates
+        Exclusions loaded;
         try {
-            cal = new Calendar(file.toPath());
-        }catch(IllegalArgumentException e){
-            displayError("Calendar could not be loaded.");
+            loaded = Exclusions.fromCalendar(file.toPath(), zone);
+        }catch(IllegalArgumentException | DateTimeException e){
+            displayError("Excluded dates could not be loaded.");
             return;
         }
 
+        //Keep the dates
+        model.loadedExclusions.set(loaded);
+        displaySuccess(loaded.size() + " excluded date(s) loaded from \'" + file.getAbsolutePath() + "\'.");
+    }
+
+    /**
+     * Exports the event(s) into an existing iCalendar file
+     */
+    private void exportToExisting(){
+        //DEBUG: print message
+        if(Main.debug){
+            System.out.println("[DEBUG] \"Export to existing\" button pressed");
+        }
+
         //Convert the form to events
-        List<Event> events = convert(form);
+        List<Event> events = convertForm();
+        if(events == null) return;      //Skip when the form can not be converted
+
+        //Select the file
+        Calendar cal = chooseExistingCalendar();
+        if(cal == null) return;         //Skip on cancel or error
 
         //Write to the calendar
         cal.addEvents(events.toArray(new Event[0]));
-        if(cal.save()){
-            displaySuccess("Events saved to \'"+file.getAbsolutePath()+"\'.");
-        }else{
-            displayError("Could not saved events to \'" + file.getAbsolutePath() + "\'.");
-        }
+        displaySaveResult(cal.save(), cal);
     }
 
     /**
@@ -599,7 +879,7 @@ public class Launcher extends Application {
         statusMsg.setText(msg);
 
         //Print to console when in debug
-        if(debug){
+        if(Main.debug){
             System.out.println("[ERROR] " + msg);
         }
     }
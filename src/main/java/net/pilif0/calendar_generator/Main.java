@@ -0,0 +1,109 @@
+package net.pilif0.calendar_generator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the command line and runs the requested command or launches the GUI
+ * <p>
+ * The headless commands never touch JavaFX (the GUI classes are loaded only when the GUI is launched), so they start
+ * as fast as the JVM does:
+ * <ul>
+ *     <li>{@code generate <specdir> <outdir>} - writes the calendars of the series definitions once</li>
+ *     <li>{@code validate <file>} - checks an iCalendar file and prints its statistics</li>
+ *     <li>{@code serve <specdir> [port]} - serves the calendars of the series definitions over HTTP</li>
+ *     <li>{@code watch <specdir> <outdir>} - keeps the calendars of the series definitions up to date</li>
+ *     <li>{@code corpus <file> <events> [seed] [option=value...]} - writes a synthetic calendar for testing</li>
+ * </ul>
+ * The {@code debug} argument can be added to any of them (or given alone for the GUI).
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Main {
+    /** Whether debug mode is enabled */
+    public static boolean debug = false;
+
+    /**
+     * Parses the command line arguments and runs the command or launches the GUI
+     *
+     * @param args Command line arguments
+     */
+    public static void main(String[] args){
+        //Parse the arguments
+        List<String> command = new ArrayList<>();
+        for(String x : args){
+            //Check debug flag
+            if(x.equals("debug")){
+                debug = true;
+            }else{
+                command.add(x);
+            }
+        }
+
+        //Launch the GUI when no command is given
+        if(command.isEmpty()){
+            Launcher.launchGui(args);
+            return;
+        }
+
+        try {
+            switch(command.get(0)){
+                case "generate":
+                    usage(command, 3, "generate <specdir> <outdir>");
+                    new Watcher(Paths.get(command.get(1)), Paths.get(command.get(2))).writeAll();
+                    break;
+                case "validate":
+                    usage(command, 2, "validate <file>");
+                    Validator.Report report = Validator.validate(Paths.get(command.get(1)));
+                    System.out.print(report);
+                    System.exit(report.isValid() ? 0 : 1);
+                    break;
+                case "serve":
+                    usage(command, 2, "serve <specdir> [port]");
+                    int port = (command.size() > 2) ? Integer.parseInt(command.get(2)) : FeedServer.DEFAULT_PORT;
+                    FeedServer.serve(command.get(1), port);
+                    break;
+                case "watch":
+                    usage(command, 3, "watch <specdir> <outdir>");
+                    Watcher.watch(command.get(1), command.get(2));
+                    break;
+                case "corpus":
+                    usage(command, 3, "corpus <file> <events> [seed] [option=value...]");
+                    int options = 3;
+                    long seed = 0;
+                    if(command.size() > 3 && !command.get(3).contains("=")){
+                        seed = Long.parseLong(command.get(3));
+                        options++;
+                    }
+                    CorpusGenerator generator = new CorpusGenerator(seed, Integer.parseInt(command.get(2)));
+                    command.subList(options, command.size()).forEach(generator::option);
+                    generator.generate(Paths.get(command.get(1)));
+                    System.out.printf("Wrote %d events to \'%s\'\n", generator.events, command.get(1));
+                    break;
+                default:
+                    System.out.printf("[ERROR] Unknown command \'%s\' (generate, validate, serve, watch or corpus).\n", command.get(0));
+                    System.exit(2);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.printf("[ERROR] Command \'%s\' failed (%s).\n", command.get(0), e.getLocalizedMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Exits with the usage message when the command has too few arguments
+     *
+     * @param command The command and its arguments
+     * @param count The required number of arguments (including the command)
+     * @param usage The usage message
+     */
+    private static void usage(List<String> command, int count, String usage){
+        if(command.size() < count){
+            System.out.println("[ERROR] Usage: " + usage);
+            System.exit(2);
+        }
+    }
+}
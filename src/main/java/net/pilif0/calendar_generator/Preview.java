@@ -0,0 +1,103 @@
+package net.pilif0.calendar_generator;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Represents a summary of the events a form conversion would generate (shown while the form is edited)
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Preview {
+    /** The number of events */
+    public final int count;
+    /** The first event date ({@code null} when there are no events) */
+    public final LocalDate first;
+    /** The last event date ({@code null} when there are no events) */
+    public final LocalDate last;
+    /** The estimated number of bytes written (UTF-8 iCalendar) */
+    public final long size;
+
+    /**
+     * Constructs the preview from its information
+     */
+    public Preview(int count, LocalDate first, LocalDate last, long size) {
+        this.count = count;
+        this.first = first;
+        this.last = last;
+        this.size = size;
+    }
+
+    /**
+     * Computes the preview of the event without creating the repeated events (may take a while for long repetitions)
+     *
+     * @param template The event to write (template of the series when repeating)
+     * @param asRule Whether a single entry with a repetition rule is written
+     * @return The preview
+     */
+    public static Preview of(Event template, boolean asRule){
+        //Case: single event
+        if(template.recurrence == null){
+            return new Preview(1, template.startDate, template.startDate, bytesOf(template));
+        }
+
+        //Case: repetition, count the occurrences
+        List<LocalDate> dates = template.recurrence.occurrences();
+        if(dates.isEmpty()){
+            return new Preview(0, null, null, 0);
+        }
+
+        //Estimate the size from a single entry
+        long size = asRule
+                ? bytesOf(template)
+                : dates.size() * bytesOf(template.withDate(dates.get(0)));
+
+        return new Preview(dates.size(), dates.get(0), dates.get(dates.size() - 1), size);
+    }
+
+    /**
+     * Computes the number of bytes the event entry takes in the file
+     *
+     * @param e The event
+     * @return The size of the entry and its line break in UTF-8
+     */
+    private static long bytesOf(Event e){
+        return e.toEntry().getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    /**
+     * Describes the preview for display
+     *
+     * @return The preview description
+     */
+    @Override
+    public String toString() {
+        if(count == 0){
+            return "No events";
+        }
+
+        return String.format("%d event(s), %s to %s, about %s",
+                count,
+                Exclusions.DATE_FORMAT.format(first),
+                Exclusions.DATE_FORMAT.format(last),
+                formatSize(size));
+    }
+
+    /**
+     * Formats a size in a human readable unit
+     *
+     * @param size The size in bytes
+     * @return The formatted size
+     */
+    private static String formatSize(long size){
+        if(size < 1024){
+            return size + " B";
+        }
+        if(size < 1024 * 1024){
+            return String.format("%.1f KB", size / 1024.0);
+        }
+        return String.format("%.1f MB", size / (1024.0 * 1024.0));
+    }
+}
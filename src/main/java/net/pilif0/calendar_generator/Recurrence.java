@@ -0,0 +1,318 @@
+package net.pilif0.calendar_generator;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+/**
+ * Represents the repetition of an event between two dates
+ * <p>
+ * The repetition goes by periods (weeks, months or years) of which every {@code interval}-th is used, counted from the
+ * period of the start date. Within a used week the event occurs on the selected days. Within a used month (or the
+ * month of the start date in a used year) it occurs either on the day of the month of the start date or, when days are
+ * selected, on the {@code ordinal}-th of those days ({@code -1} being the last). Occurrences are found by jumping from
+ * period to period, so long repetitions cost only as much as they have periods.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Recurrence {
+    /** The iCalendar names of the days of the week (Monday first) */
+    public static final String[] DAY_NAMES = {"MO", "TU", "WE", "TH", "FR", "SA", "SU"};
+    /** The ordinal of the last day of the week in a month */
+    public static final int LAST = -1;
+
+    /**
+     * The period of the repetition
+     */
+    public enum Frequency {
+        /** Repeats on the selected days of the week */
+        WEEKLY(ChronoUnit.WEEKS),
+        /** Repeats on a day of the month or the n-th selected day of the week in the month */
+        MONTHLY(ChronoUnit.MONTHS),
+        /** Repeats in the month of the start date, as monthly repetition does */
+        YEARLY(ChronoUnit.YEARS);
+
+        /** The length of the period */
+        private final ChronoUnit unit;
+
+        /**
+         * Constructs the frequency from its period length
+         */
+        Frequency(ChronoUnit unit) {
+            this.unit = unit;
+        }
+    }
+
+    /** The period of the repetition */
+    public final Frequency frequency;
+    /** The number of periods between the used periods (1 uses every period) */
+    public final int interval;
+    /** Whether to repeat on each day of the week (Monday first) */
+    private final boolean[] days;
+    /** The ordinal of the selected days of the week in the month (1 to 5 or {@code LAST}, not used weekly) */
+    public final int ordinal;
+    /** The repetition start date (inclusive) */
+    public final LocalDate from;
+    /** The repetition end date (exclusive) */
+    public final LocalDate to;
+    /** The dates to skip */
+    public final Exclusions exclusions;
+    /** The start of the period of the start date */
+    private final LocalDate anchor;
+
+    /**
+     * Constructs the weekly recurrence from its information
+     */
+    public Recurrence(boolean[] days, LocalDate from, LocalDate to, Exclusions exclusions) {
+        this(Frequency.WEEKLY, 1, days, 1, from, to, exclusions);
+    }
+
+    /**
+     * Constructs the recurrence from all its information
+     */
+    public Recurrence(Frequency frequency, int interval, boolean[] days, int ordinal, LocalDate from, LocalDate to,
+                      Exclusions exclusions) {
+        if(interval < 1){
+            throw new IllegalArgumentException("The repetition interval must be positive.");
+        }
+        if(frequency != Frequency.WEEKLY && (ordinal == 0 || ordinal < LAST || ordinal > 5)){
+            throw new IllegalArgumentException("The day ordinal must be 1 to 5 or last.");
+        }
+
+        this.frequency = frequency;
+        this.interval = interval;
+        this.days = days.clone();
+        this.ordinal = ordinal;
+        this.from = from;
+        this.to = to;
+        this.exclusions = exclusions;
+
+        switch(frequency){
+            case WEEKLY: anchor = from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)); break;
+            case MONTHLY: anchor = from.withDayOfMonth(1); break;
+            default: anchor = from.withDayOfYear(1);
+        }
+    }
+
+    /**
+     * Checks whether the event repeats on the day of the week
+     *
+     * @param day The day of the week
+     * @return {@code true} when it repeats on that day, {@code false} otherwise
+     */
+    public boolean repeatsOn(DayOfWeek day){
+        return days[day.getValue() - 1];
+    }
+
+    /**
+     * Checks whether at least one day of the week is selected
+     *
+     * @return {@code true} when at least one day is selected, {@code false} otherwise
+     */
+    private boolean hasDays(){
+        for(boolean day : days){
+            if(day){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the event repeats (monthly and yearly always do, weekly only on at least one day)
+     *
+     * @return {@code true} when it repeats, {@code false} otherwise
+     */
+    public boolean isRepeating(){
+        return frequency != Frequency.WEEKLY || hasDays();
+    }
+
+    /**
+     * Checks whether the date is between the bounds (the start date always is)
+     *
+     * @param date The date
+     * @return {@code true} when between the bounds, {@code false} otherwise
+     */
+    private boolean inRange(LocalDate date){
+        return date.isEqual(from) || (date.isAfter(from) && date.isBefore(to));
+    }
+
+    /**
+     * Lists the dates matching the pattern in a used period
+     *
+     * @param start The start of the period
+     * @return The dates in ascending order
+     */
+    private List<LocalDate> candidates(LocalDate start){
+        List<LocalDate> result = new ArrayList<>(DAY_NAMES.length);
+
+        //Case: selected days of the week
+        if(frequency == Frequency.WEEKLY){
+            for(int i = 0; i < days.length; i++){
+                if(days[i]){
+                    result.add(start.plusDays(i));
+                }
+            }
+            return result;
+        }
+
+        //Find the month (the month of the start date in the year when yearly)
+        LocalDate month = (frequency == Frequency.YEARLY) ? start.withMonth(from.getMonthValue()) : start;
+
+        //Case: the day of the month of the start date (months without it are skipped)
+        if(!hasDays()){
+            if(from.getDayOfMonth() <= month.lengthOfMonth()){
+                result.add(month.withDayOfMonth(from.getDayOfMonth()));
+            }
+            return result;
+        }
+
+        //Case: the n-th selected days of the week (months without a fifth one are skipped)
+        for(int i = 0; i < days.length; i++){
+            if(days[i]){
+                LocalDate date = month.with(TemporalAdjusters.dayOfWeekInMonth(ordinal, DayOfWeek.of(i + 1)));
+                if(date.getMonth() == month.getMonth()){
+                    result.add(date);
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Finds the first date matching the pattern on or after the date (regardless of exclusions)
+     * <p>
+     * The used period containing the date is computed directly, so the search only visits periods, not days.
+     *
+     * @param date The earliest date to consider
+     * @return The date or {@code null} when there is none before the end
+     */
+    public LocalDate next(LocalDate date){
+        if(date.isBefore(from)){
+            date = from;
+        }
+
+        //Find the used period containing the date or the next one
+        long periods = frequency.unit.between(anchor, date);
+        long k = Math.floorDiv(periods, interval) * interval;
+
+        //Search the used periods until past the end
+        LocalDate last = last();
+        for(LocalDate start = anchor.plus(k, frequency.unit); !start.isAfter(last);
+                k += interval, start = anchor.plus(k, frequency.unit)){
+            for(LocalDate candidate : candidates(start)){
+                if(!candidate.isBefore(date) && inRange(candidate)){
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the pattern matches the date (regardless of exclusions)
+     *
+     * @param date The date
+     * @return {@code true} when it matches, {@code false} otherwise
+     */
+    public boolean matches(LocalDate date){
+        return date.equals(next(date));
+    }
+
+    /**
+     * Lists the dates on which the event occurs (excluded dates are skipped)
+     *
+     * @return The occurrence dates in ascending order
+     */
+    public List<LocalDate> occurrences(){
+        List<LocalDate> result = new ArrayList<>();
+        for(LocalDate current = first(); current != null; current = next(current.plusDays(1))){
+            if(!exclusions.contains(current)){
+                result.add(current);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the first date matching the pattern (regardless of exclusions)
+     *
+     * @return The first date or {@code null} when there is none
+     */
+    public LocalDate first(){
+        return next(from);
+    }
+
+    /**
+     * Finds the last date on which an occurrence may start (the day before the exclusive end)
+     *
+     * @return The last possible date
+     */
+    public LocalDate last(){
+        LocalDate result = to.minusDays(1);
+        return result.isBefore(from) ? from : result;
+    }
+
+    /**
+     * Lists the excluded dates that would otherwise be occurrences
+     *
+     * @return The excluded occurrence dates in ascending order
+     */
+    public List<LocalDate> excludedOccurrences(){
+        return exclusions
+                .between(from, last().plusDays(1))
+                .filter(this::matches)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Expands the template event into a single event for each occurrence
+     *
+     * @param template The event to repeat (its dates give the duration)
+     * @return The expanded events
+     */
+    public List<Event> expand(Event template){
+        return occurrences()
+                .stream()
+                .map(template::withDate)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Generates the iCalendar repetition rule without its end (the caller appends {@code UNTIL} in the right format)
+     *
+     * @return The repetition rule
+     */
+    public String toRule(){
+        StringBuilder result = new StringBuilder("FREQ=").append(frequency.name());
+        if(interval > 1){
+            result.append(";INTERVAL=").append(interval);
+        }
+        if(frequency == Frequency.YEARLY){
+            result.append(";BYMONTH=").append(from.getMonthValue());
+        }
+
+        //Case: day of the month
+        if(frequency != Frequency.WEEKLY && !hasDays()){
+            return result.append(";BYMONTHDAY=").append(from.getDayOfMonth()).toString();
+        }
+
+        //Case: days of the week (with their ordinal in the month unless weekly)
+        String prefix = (frequency == Frequency.WEEKLY) ? "" : String.valueOf(ordinal);
+        StringJoiner byDay = new StringJoiner(",");
+        for(int i = 0; i < days.length; i++){
+            if(days[i]){
+                byDay.add(prefix + DAY_NAMES[i]);
+            }
+        }
+
+        return result.append(";BYDAY=").append(byDay).toString();
+    }
+}
@@ -0,0 +1,273 @@
+package net.pilif0.calendar_generator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a stored series definition (the values of the event form kept in a properties file)
+ * <p>
+ * A definition file has the {@code .series} extension and these keys:
+ * <ul>
+ *     <li>{@code calendar} - the name of the calendar the series belongs to (default {@code calendar})</li>
+ *     <li>{@code title} - the event title (required)</li>
+ *     <li>{@code start}, {@code end} - the start (required) and end (default start) dates ({@code 2017-03-20})</li>
+ *     <li>{@code startTime}, {@code endTime} - the start and end times ({@code 10:00}, required)</li>
+ *     <li>{@code zone} - the time zone identifier (default system time zone)</li>
+ *     <li>{@code localTime} - whether to write local times (default {@code false})</li>
+ *     <li>{@code repeat} - the days to repeat on ({@code MO,WE}, default none)</li>
+ *     <li>{@code frequency} - the repetition period ({@code weekly}, {@code monthly} or {@code yearly}, default
+ *     {@code weekly}), monthly and yearly repetition is on the day of the month of the repetition start unless days are
+ *     given (yearly in the month of the repetition start)</li>
+ *     <li>{@code interval} - the number of periods between the repetitions (default {@code 1})</li>
+ *     <li>{@code ordinal} - the ordinal of the repetition days in the month for monthly and yearly repetition
+ *     ({@code 1} to {@code 5} or {@code last}, default {@code 1})</li>
+ *     <li>{@code repeatFrom}, {@code repeatTo} - the repetition start (inclusive, default start) and end
+ *     (exclusive, required when repeating) dates</li>
+ *     <li>{@code except} - the excluded dates and date ranges ({@code 2017-04-14,2017-04-10..2017-04-21})</li>
+ *     <li>{@code asRule} - whether to write a single entry with a repetition rule (default {@code false})</li>
+ *     <li>{@code location}, {@code description} - the event location and description (default empty)</li>
+ *     <li>{@code available} - the event transparency (default {@code true})</li>
+ * </ul>
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class SeriesSpec {
+    /** The extension of definition files */
+    public static final String EXTENSION = ".series";
+    /** The name of the calendar of series that do not name one */
+    public static final String DEFAULT_CALENDAR = "calendar";
+    /** The date format */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+    /** The time format */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_LOCAL_TIME;
+    /** The UID date format */
+    private static final DateTimeFormatter UID_DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /** The definition file */
+    public final Path file;
+    /** The series name (file name without the extension) */
+    public final String name;
+    /** The definition file modification time */
+    public final Instant modified;
+    /** The checksum of the definition file contents (changes missed by a coarse modification time show in it) */
+    public final long checksum;
+    /** The name of the calendar the series belongs to */
+    public final String calendar;
+    /** The series template (repeating when the series repeats) */
+    public final Event template;
+    /** Whether to write a single entry with a repetition rule */
+    public final boolean asRule;
+
+    /**
+     * Constructs the definition from its information
+     */
+    public SeriesSpec(Path file, String name, Instant modified, long checksum, String calendar, Event template,
+                      boolean asRule) {
+        this.file = file;
+        this.name = name;
+        this.modified = modified;
+        this.checksum = checksum;
+        this.calendar = calendar;
+        this.template = template;
+        this.asRule = asRule;
+    }
+
+    /**
+     * Reads a definition file
+     *
+     * @param file The file to read
+     * @return The definition
+     */
+    public static SeriesSpec load(Path file){
+        //Read the properties
+        Properties p = new Properties();
+        Instant modified;
+        long checksum;
+        try {
+            modified = Files.getLastModifiedTime(file).toInstant();
+            byte[] contents = Files.readAllBytes(file);
+            checksum = checksum(contents);
+            p.load(new InputStreamReader(new ByteArrayInputStream(contents), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The series file could not be read.");
+        }
+
+        try {
+            //Parse the event
+            LocalDate start = LocalDate.parse(required(p, "start"), DATE_FORMAT);
+            LocalDate end = LocalDate.parse(p.getProperty("end", required(p, "start")), DATE_FORMAT);
+            Event event = new Event(
+                    required(p, "title"),
+                    start,
+                    end,
+                    LocalTime.parse(required(p, "startTime"), TIME_FORMAT),
+                    LocalTime.parse(required(p, "endTime"), TIME_FORMAT),
+                    p.getProperty("location", ""),
+                    p.getProperty("description", ""),
+                    Boolean.parseBoolean(p.getProperty("available", "true")));
+
+            //Parse the repetition
+            boolean[] days = new boolean[Recurrence.DAY_NAMES.length];
+            for(String day : p.getProperty("repeat", "").split(",")){
+                if(day.trim().isEmpty()){
+                    continue;
+                }
+                int i = Arrays.asList(Recurrence.DAY_NAMES).indexOf(day.trim().toUpperCase());
+                if(i == -1){
+                    throw new IllegalArgumentException("Unknown day \'" + day.trim() + "\'.");
+                }
+                days[i] = true;
+            }
+            Recurrence recurrence = null;
+            String frequency = p.getProperty("frequency", "weekly").trim().toUpperCase();
+            if(!Arrays.asList("WEEKLY", "MONTHLY", "YEARLY").contains(frequency)){
+                throw new IllegalArgumentException("Unknown frequency \'" + frequency.toLowerCase() + "\'.");
+            }
+            String ordinal = p.getProperty("ordinal", "1").trim();
+            Recurrence candidate = new Recurrence(
+                    Recurrence.Frequency.valueOf(frequency),
+                    Integer.parseInt(p.getProperty("interval", "1").trim()),
+                    days,
+                    ordinal.equalsIgnoreCase("last") ? Recurrence.LAST : Integer.parseInt(ordinal),
+                    LocalDate.parse(p.getProperty("repeatFrom", required(p, "start")), DATE_FORMAT),
+                    LocalDate.parse(p.getProperty("repeatTo", required(p, "start")), DATE_FORMAT),
+                    Exclusions.parse(p.getProperty("except", "")));
+            if(candidate.isRepeating()){
+                required(p, "repeatTo");
+                recurrence = candidate;
+            }
+
+            //Place it in the time zone
+            ZoneId zone = p.containsKey("zone") ? ZoneId.of(p.getProperty("zone")) : ZoneId.systemDefault();
+            Event template = event.inSeries(zone, Boolean.parseBoolean(p.getProperty("localTime", "false")), recurrence);
+
+            return new SeriesSpec(
+                    file,
+                    nameOf(file),
+                    modified,
+                    checksum,
+                    p.getProperty("calendar", DEFAULT_CALENDAR),
+                    template,
+                    Boolean.parseBoolean(p.getProperty("asRule", "false")));
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("The series file has a bad value (" + e.getLocalizedMessage() + ").");
+        }
+    }
+
+    /**
+     * Reads all definition files in the directory, skipping the ones that can not be read (errors are printed)
+     *
+     * @param dir The directory to read
+     * @return The definitions ordered by file name
+     * @throws IOException When the directory could not be listed
+     */
+    public static List<SeriesSpec> loadAll(Path dir) throws IOException {
+        List<SeriesSpec> result = new ArrayList<>();
+        for(Path file : list(dir)){
+            try {
+                result.add(load(file));
+            } catch (IllegalArgumentException e) {
+                System.out.printf("[ERROR] Series \'%s\' skipped: %s\n", file.getFileName(), e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the definition files in the directory
+     *
+     * @param dir The directory to list
+     * @return The definition files ordered by file name
+     * @throws IOException When the directory could not be listed
+     */
+    public static List<Path> list(Path dir) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            files.forEach(result::add);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Groups the definitions by the calendar they belong to
+     *
+     * @param specs The definitions
+     * @return The definitions by calendar name (in order of names)
+     */
+    public static Map<String, List<SeriesSpec>> byCalendar(List<SeriesSpec> specs){
+        return specs.stream()
+                .collect(Collectors.groupingBy(s -> s.calendar, TreeMap::new, Collectors.toList()));
+    }
+
+    /**
+     * Computes the checksum of definition file contents
+     *
+     * @param contents The file contents
+     * @return The checksum
+     */
+    public static long checksum(byte[] contents){
+        CRC32 result = new CRC32();
+        result.update(contents);
+        return result.getValue();
+    }
+
+    /**
+     * Finds the series name of a definition file
+     *
+     * @param file The definition file
+     * @return The file name without the extension
+     */
+    public static String nameOf(Path file){
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(EXTENSION) ? fileName.substring(0, fileName.length() - EXTENSION.length()) : fileName;
+    }
+
+    /**
+     * Converts the definition into the events to write with stable UIDs and creation datetime
+     * <p>
+     * The UIDs are derived from the series name (and occurrence date when expanded) and the creation is the file
+     * modification, so converting an unchanged definition again gives the same entries.
+     *
+     * @return The events
+     */
+    public List<Event> toEvents(){
+        Event base = template.withCreation(modified);
+
+        //Case: single entry
+        if(template.recurrence == null || asRule){
+            return Collections.singletonList(base.withUid(name + "@pilif0.net"));
+        }
+
+        //Case: expanded repetition
+        return template.recurrence.expand(base).stream()
+                .map(e -> e.withUid(name + "-" + e.startDate.format(UID_DATE_FORMAT) + "@pilif0.net"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Finds a required property
+     *
+     * @param p The properties
+     * @param key The property key
+     * @return The property value
+     */
+    private static String required(Properties p, String key){
+        String result = p.getProperty(key);
+        if(result == null){
+            throw new IllegalArgumentException("The series file has no \'" + key + "\'.");
+        }
+        return result;
+    }
+}
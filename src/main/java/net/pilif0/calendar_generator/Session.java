@@ -0,0 +1,140 @@
+package net.pilif0.calendar_generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a queue of converted event series waiting to be written to a calendar together
+ * <p>
+ * Building a timetable takes many form conversions. Queueing them and flushing the whole queue at once means the
+ * target calendar is opened and written only once instead of once per conversion.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Session {
+    /**
+     * Represents a single queued series (the events of one form conversion)
+     */
+    public static class Series {
+        /** The series name (title of its events) */
+        public final String name;
+        /** The series events */
+        public final List<Event> events;
+
+        /**
+         * Constructs the series from its information
+         */
+        public Series(String name, List<Event> events) {
+            this.name = name;
+            this.events = Collections.unmodifiableList(new ArrayList<>(events));
+        }
+
+        /**
+         * Describes the series for display (name, number of events and date range)
+         *
+         * @return The series description
+         */
+        @Override
+        public String toString() {
+            if(events.isEmpty()){
+                return name + " (no events)";
+            }
+
+            return String.format("%s (%d event(s), %s to %s)",
+                    name,
+                    events.size(),
+                    events.get(0).startDate,
+                    events.get(events.size() - 1).startDate);
+        }
+    }
+
+    /** The queued series in the order they were added */
+    private final List<Series> queue = new ArrayList<>();
+
+    /**
+     * Adds a series to the queue
+     *
+     * @param name The series name
+     * @param events The series events
+     * @return The queued series
+     */
+    public Series add(String name, List<Event> events){
+        Series result = new Series(name, events);
+        queue.add(result);
+
+        //DEBUG: print queue note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Queued series %s, %d event(s) in session\n", result, eventCount());
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes a series from the queue
+     *
+     * @param index The index of the series
+     */
+    public void remove(int index){
+        queue.remove(index);
+    }
+
+    /**
+     * Removes all series from the queue
+     */
+    public void clear(){
+        queue.clear();
+    }
+
+    /**
+     * Lists the queued series
+     *
+     * @return The queued series in the order they were added
+     */
+    public List<Series> getSeries(){
+        return Collections.unmodifiableList(queue);
+    }
+
+    /**
+     * Checks whether the queue is empty
+     *
+     * @return {@code true} when no series is queued, {@code false} otherwise
+     */
+    public boolean isEmpty(){
+        return queue.isEmpty();
+    }
+
+    /**
+     * Counts the events in all queued series
+     *
+     * @return The number of events
+     */
+    public int eventCount(){
+        return queue.stream()
+                .mapToInt(s -> s.events.size())
+                .sum();
+    }
+
+    /**
+     * Writes all queued series to the calendar in a single save and empties the queue on success
+     *
+     * @param cal The calendar to write to
+     * @return {@code true} on success, {@code false} on failure (the queue is kept)
+     */
+    public boolean flush(Calendar cal){
+        //DEBUG: print flush note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Flushing %d series (%d event(s)) to \'%s\'\n", queue.size(), eventCount(), cal.path);
+        }
+
+        queue.forEach(s -> s.events.forEach(cal::addEvent));
+        if(!cal.save()){
+            return false;
+        }
+
+        queue.clear();
+        return true;
+    }
+}
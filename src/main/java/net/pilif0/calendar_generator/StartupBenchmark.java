@@ -0,0 +1,100 @@
+package net.pilif0.calendar_generator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the time from starting a fresh JVM running a headless command to its first output
+ * <p>
+ * Usage: {@code StartupBenchmark <runs> <maxMillis> <command...>}. The command is run through {@link Main} in a new
+ * JVM with the current class path (the JVM options of the runs can be given in the {@code benchmark.jvmArgs} system
+ * property, separated by spaces, for example to use a class data sharing archive). The time of each run is printed
+ * along with the fastest and the median. When the median is over the limit (a limit of zero means no limit), the
+ * benchmark exits with status 1, so a build running it fails on a startup regression.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class StartupBenchmark {
+    /**
+     * Runs the benchmark
+     *
+     * @param args The number of runs, the limit of the median (milliseconds) and the command
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 3){
+            System.out.println("[ERROR] Usage: StartupBenchmark <runs> <maxMillis> <command...>");
+            System.exit(2);
+        }
+        int runs = Integer.parseInt(args[0]);
+        long limit = Long.parseLong(args[1]);
+        List<String> command = Arrays.asList(args).subList(2, args.length);
+
+        //Prepare the JVM command line
+        List<String> line = new ArrayList<>();
+        line.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for(String option : System.getProperty("benchmark.jvmArgs", "").split(" ")){
+            if(!option.isEmpty()){
+                line.add(option);
+            }
+        }
+        line.add("-cp");
+        line.add(System.getProperty("java.class.path"));
+        line.add(Main.class.getName());
+        line.addAll(command);
+
+        //Run it
+        long[] times = new long[runs];
+        for(int i = 0; i < runs; i++){
+            times[i] = run(line);
+            System.out.printf("Run %d: %d ms\n", i + 1, times[i]);
+        }
+
+        //Summarise
+        Arrays.sort(times);
+        long median = times[runs / 2];
+        System.out.printf("Time to first output of \'%s\': fastest %d ms, median %d ms\n",
+                String.join(" ", command), times[0], median);
+        if(limit > 0 && median > limit){
+            System.out.printf("[ERROR] Median startup time %d ms is over the limit of %d ms.\n", median, limit);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the command once and measures the time to its first output
+     *
+     * @param line The command line
+     * @return The time to the first output byte (milliseconds)
+     * @throws IOException When the process could not be started
+     * @throws InterruptedException When interrupted while waiting for the process
+     */
+    private static long run(List<String> line) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(line)
+                .redirectErrorStream(true)
+                .start();
+
+        //Wait for the first byte, then drain the rest
+        long result = -1;
+        try (InputStream out = process.getInputStream()) {
+            if(out.read() != -1){
+                result = (System.nanoTime() - start) / 1_000_000;
+            }
+            byte[] buffer = new byte[4096];
+            while(out.read(buffer) != -1){
+                //Discard the rest of the output
+            }
+        }
+
+        int status = process.waitFor();
+        if(result == -1 || status != 0){
+            throw new IOException("The benchmarked command failed (status " + status + ", no output: " + (result == -1) + ").");
+        }
+        return result;
+    }
+}
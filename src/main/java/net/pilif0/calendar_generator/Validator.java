@@ -0,0 +1,678 @@
+package net.pilif0.calendar_generator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Checks that an iCalendar file is well-formed and collects its statistics
+ * <p>
+ * The file is split into chunks at event starts ({@code BEGIN:VEVENT} lines), the chunks are memory-mapped and
+ * scanned in parallel and their summaries are combined in file order. A chunk summary keeps the block ends it could
+ * not match and the blocks it left open, so the balance of {@code BEGIN}/{@code END} lines is checked across chunks.
+ * Compressed files are scanned sequentially as they are decompressed.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Validator {
+    /** The smallest chunk worth scanning on its own */
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    /** The number of chunks per processor (to even out uneven chunks) */
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+    /** The size of the mapped windows of a chunk */
+    private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+    /** The size of the scanning buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The most problems kept for the report (all are counted) */
+    public static final int MAX_PROBLEMS = 100;
+    /** The properties with date or datetime values */
+    private static final String[] TIMESTAMP_PROPERTIES = {"DTSTART", "DTEND", "DTSTAMP", "CREATED", "LAST-MODIFIED",
+            "EXDATE", "RECURRENCE-ID", "DUE", "COMPLETED"};
+
+    /**
+     * Represents the result of a validation
+     */
+    public static class Report {
+        /** The validated file */
+        public final Path file;
+        /** The number of lines */
+        public final long lines;
+        /** The number of events */
+        public final long events;
+        /** The earliest event start as written ({@code null} when there are no events) */
+        public final String firstStart;
+        /** The latest event start as written ({@code null} when there are no events) */
+        public final String lastStart;
+        /** The number of problems found */
+        public final long problemCount;
+        /** The first problems found (at most {@link #MAX_PROBLEMS}) */
+        public final List<String> problems;
+
+        /**
+         * Constructs the report from its information
+         */
+        private Report(Path file, long lines, long events, String firstStart, String lastStart, long problemCount,
+                       List<String> problems) {
+            this.file = file;
+            this.lines = lines;
+            this.events = events;
+            this.firstStart = firstStart;
+            this.lastStart = lastStart;
+            this.problemCount = problemCount;
+            this.problems = problems;
+        }
+
+        /**
+         * Checks whether the file is well-formed
+         *
+         * @return {@code true} when no problems were found, {@code false} otherwise
+         */
+        public boolean isValid(){
+            return problemCount == 0;
+        }
+
+        /**
+         * Describes the result for display (statistics followed by the problems)
+         *
+         * @return The description
+         */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(file).append(": ").append(isValid() ? "valid" : "invalid").append(System.lineSeparator())
+                    .append("Lines: ").append(lines).append(System.lineSeparator())
+                    .append("Events: ").append(events).append(System.lineSeparator());
+            if(events > 0){
+                result.append("Starts: ").append(firstStart).append(" to ").append(lastStart).append(System.lineSeparator());
+            }
+            if(!isValid()){
+                result.append("Problems: ").append(problemCount).append(System.lineSeparator());
+                problems.forEach(p -> result.append(" - ").append(p).append(System.lineSeparator()));
+                if(problemCount > problems.size()){
+                    result.append(" - ...").append(System.lineSeparator());
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Validates the iCalendar file
+     *
+     * @param file The file to validate
+     * @return The validation report
+     * @throws IOException When the file could not be read
+     */
+    public static Report validate(Path file) throws IOException {
+        long start = System.nanoTime();
+
+        Summary summary;
+        if(Calendar.isCompressed(file)){
+            //Case: compressed, scan the decompressed stream
+            summary = new Summary();
+            try (InputStream in = Calendar.openInput(file)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while((read = in.read(buffer)) != -1){
+                    summary.feed(buffer, 0, read);
+                }
+            }
+            summary.finish();
+        }else{
+            //Case: plain, scan the chunks in parallel and combine them in order
+            try (FileChannel channel = FileChannel.open(file)) {
+                long[] bounds = split(channel);
+                List<Summary> chunks;
+                try {
+                    chunks = IntStream.range(0, bounds.length - 1)
+                            .parallel()
+                            .mapToObj(i -> scan(channel, bounds[i], bounds[i + 1]))
+                            .collect(Collectors.toList());
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                summary = chunks.get(0);
+                for(int i = 1; i < chunks.size(); i++){
+                    summary.combine(chunks.get(i));
+                }
+            }
+        }
+
+        Report result = summary.toReport(file);
+
+        //DEBUG: print validation note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Validated \'%s\' in %d ms\n", file, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits the file into chunks that start at event starts
+     *
+     * @param channel The file
+     * @return The chunk bounds (first is zero, last is the file size)
+     * @throws IOException When the file could not be read
+     */
+    private static long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int count = (int) Math.max(1, Math.min(
+                size / MIN_CHUNK_SIZE,
+                (long) Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        for(int i = 1; i < count; i++){
+            long target = Math.max(size / count * i, bounds.get(bounds.size() - 1));
+            long bound = nextEventStart(channel, target);
+            if(bound >= size){
+                break;
+            }
+            if(bound > bounds.get(bounds.size() - 1)){
+                bounds.add(bound);
+            }
+        }
+        bounds.add(size);
+
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Finds the first event start ({@code BEGIN:VEVENT} at a line start) after the position
+     *
+     * @param channel The file
+     * @param position The position to search from
+     * @return The offset of the event start or the file size when there is none
+     * @throws IOException When the file could not be read
+     */
+    private static long nextEventStart(FileChannel channel, long position) throws IOException {
+        byte[] pattern = "\nBEGIN:VEVENT".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        int matched = 0;
+        long offset = position;
+        int read;
+        while((read = channel.read(buffer, offset)) > 0){
+            buffer.flip();
+            for(int i = 0; i < read; i++){
+                byte b = buffer.get(i);
+                //The line feed appears only at the pattern start, so a mismatch restarts from it
+                matched = (b == pattern[matched]) ? matched + 1 : ((b == '\n') ? 1 : 0);
+                if(matched == pattern.length){
+                    return offset + i - pattern.length + 2;
+                }
+            }
+            offset += read;
+            buffer.clear();
+        }
+        return channel.size();
+    }
+
+    /**
+     * Scans a chunk of the file (through mapped windows)
+     *
+     * @param channel The file
+     * @param from The chunk start (inclusive)
+     * @param to The chunk end (exclusive)
+     * @return The chunk summary
+     */
+    private static Summary scan(FileChannel channel, long from, long to){
+        Summary result = new Summary();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            for(long window = from; window < to; window += MAP_WINDOW_SIZE){
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(MAP_WINDOW_SIZE, to - window));
+                while(mapped.hasRemaining()){
+                    int length = Math.min(buffer.length, mapped.remaining());
+                    mapped.get(buffer, 0, length);
+                    result.feed(buffer, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        result.finish();
+        return result;
+    }
+
+    /**
+     * Represents a problem found in the file
+     */
+    private static class Problem {
+        /** The line number (one-based, relative to the chunk until combined) */
+        private long line;
+        /** The problem description */
+        private final String message;
+
+        /**
+         * Constructs the problem from its information
+         */
+        private Problem(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return (line > 0) ? "Line " + line + ": " + message : message;
+        }
+    }
+
+    /**
+     * Represents a block begin or end line
+     */
+    private static class Block {
+        /** The block name */
+        private final String name;
+        /** The line number (one-based, relative to the chunk until combined) */
+        private long line;
+
+        /**
+         * Constructs the block line from its information
+         */
+        private Block(String name, long line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Represents the summary of a scanned part of a file (combinable in file order)
+     */
+    private static class Summary {
+        /** The number of lines */
+        private long lines = 0;
+        /** The number of complete events */
+        private long events = 0;
+        /** The earliest event start ({@code yyyyMMddHHmmss}, {@link Long#MAX_VALUE} when none) */
+        private long firstStart = Long.MAX_VALUE;
+        /** The latest event start ({@code yyyyMMddHHmmss}, {@link Long#MIN_VALUE} when none) */
+        private long lastStart = Long.MIN_VALUE;
+        /** The number of problems */
+        private long problemCount = 0;
+        /** The first problems */
+        private final List<Problem> problems = new ArrayList<>();
+        /** The block ends without a begin in the part (in order) */
+        private final List<Block> unmatched = new ArrayList<>();
+        /** The blocks left open at the end of the part (innermost last) */
+        private final List<Block> open = new ArrayList<>();
+        /** Whether a product identifier was found */
+        private boolean prodid = false;
+        /** Whether a version was found */
+        private boolean version = false;
+
+        /** The current line */
+        private byte[] line = new byte[256];
+        /** The current line length */
+        private int lineLength = 0;
+        /** Whether the current event has a UID, DTSTAMP and DTSTART */
+        private boolean uid, dtstamp, dtstart;
+        /** The current event start */
+        private long start;
+
+        /**
+         * Scans the bytes (lines may span consecutive calls)
+         *
+         * @param bytes The bytes
+         * @param offset The offset of the first byte
+         * @param length The number of bytes
+         */
+        private void feed(byte[] bytes, int offset, int length){
+            for(int i = offset; i < offset + length; i++){
+                byte b = bytes[i];
+                if(b == '\n'){
+                    endLine();
+                }else{
+                    //Grow the line when needed
+                    if(lineLength == line.length){
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        /**
+         * Scans the last line (without a line feed)
+         */
+        private void finish(){
+            if(lineLength > 0){
+                endLine();
+            }
+        }
+
+        /**
+         * Processes the current line
+         */
+        private void endLine(){
+            lines++;
+            int length = (lineLength > 0 && line[lineLength - 1] == '\r') ? lineLength - 1 : lineLength;
+            lineLength = 0;
+
+            //Skip empty and continuation lines
+            if(length == 0 || line[0] == ' ' || line[0] == '\t'){
+                return;
+            }
+
+            if(isProperty("BEGIN", length)){
+                String name = value(length);
+                open.add(new Block(name, lines));
+                if(name.equals("VEVENT")){
+                    uid = false;
+                    dtstamp = false;
+                    dtstart = false;
+                    start = Long.MIN_VALUE;
+                }
+            }else if(isProperty("END", length)){
+                String name = value(length);
+                if(open.isEmpty()){
+                    unmatched.add(new Block(name, lines));
+                }else{
+                    Block begin = open.remove(open.size() - 1);
+                    if(!begin.name.equals(name)){
+                        problem(lines, "END:" + name + " does not match BEGIN:" + begin.name + " at line " + begin.line);
+                    }else if(name.equals("VEVENT")){
+                        endEvent(begin.line);
+                    }
+                }
+            }else{
+                boolean inEvent = !open.isEmpty() && open.get(open.size() - 1).name.equals("VEVENT");
+                if(inEvent && isProperty("UID", length)){
+                    uid = true;
+                }else if(isProperty("PRODID", length)){
+                    prodid = true;
+                }else if(isProperty("VERSION", length)){
+                    version = true;
+                }
+
+                //Check the timestamps (all their names start with one of few letters)
+                byte first = line[0];
+                if(first != 'D' && first != 'C' && first != 'L' && first != 'E' && first != 'R'){
+                    return;
+                }
+                for(String name : TIMESTAMP_PROPERTIES){
+                    if(isProperty(name, length)){
+                        long timestamp = checkTimestamps(name, length);
+                        if(inEvent && name.equals("DTSTAMP")){
+                            dtstamp = true;
+                        }else if(inEvent && name.equals("DTSTART")){
+                            dtstart = true;
+                            start = timestamp;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Checks the complete event and counts it
+         *
+         * @param beginLine The line of the event begin
+         */
+        private void endEvent(long beginLine){
+            events++;
+            if(!uid) problem(beginLine, "Event has no UID");
+            if(!dtstamp) problem(beginLine, "Event has no DTSTAMP");
+            if(!dtstart) problem(beginLine, "Event has no DTSTART");
+            if(start != Long.MIN_VALUE){
+                firstStart = Math.min(firstStart, start);
+                lastStart = Math.max(lastStart, start);
+            }
+        }
+
+        /**
+         * Checks the date or datetime values of the current property line
+         *
+         * @param name The property name
+         * @param length The line length
+         * @return The first value as {@code yyyyMMddHHmmss} or {@link Long#MIN_VALUE} when not valid
+         */
+        private long checkTimestamps(String name, int length){
+            //Find the value start (outside quoted parameter values)
+            int colon = -1;
+            boolean quoted = false;
+            for(int i = name.length(); i < length && colon == -1; i++){
+                if(line[i] == '"'){
+                    quoted = !quoted;
+                }else if(line[i] == ':' && !quoted){
+                    colon = i;
+                }
+            }
+            if(colon == -1){
+                problem(lines, name + " has no value");
+                return Long.MIN_VALUE;
+            }
+            boolean dateOnly = contains("VALUE=DATE", name.length(), colon)
+                    && !contains("VALUE=DATE-TIME", name.length(), colon);
+
+            //Check each (comma separated) value
+            long result = Long.MIN_VALUE;
+            int valueStart = colon + 1;
+            for(int i = valueStart; i <= length; i++){
+                if(i == length || line[i] == ','){
+                    long timestamp = parseTimestamp(valueStart, i, dateOnly);
+                    if(timestamp == Long.MIN_VALUE){
+                        problem(lines, "Bad " + name + " value \'" + new String(line, valueStart, i - valueStart, StandardCharsets.UTF_8) + "\'");
+                    }else if(result == Long.MIN_VALUE){
+                        result = timestamp;
+                    }
+                    valueStart = i + 1;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Parses a date ({@code yyyyMMdd}) or datetime ({@code yyyyMMdd'T'HHmmss}, optionally with {@code Z}) of the
+         * current line
+         *
+         * @param from The value start (inclusive)
+         * @param to The value end (exclusive)
+         * @param dateOnly Whether the value must be a date
+         * @return The value as {@code yyyyMMddHHmmss} or {@link Long#MIN_VALUE} when not valid
+         */
+        private long parseTimestamp(int from, int to, boolean dateOnly){
+            int length = to - from;
+            boolean date = length == 8;
+            boolean datetime = (length == 15 || (length == 16 && line[to - 1] == 'Z')) && line[from + 8] == 'T';
+            if(!(date || (datetime && !dateOnly))){
+                return Long.MIN_VALUE;
+            }
+
+            int year = digits(from, 4);
+            int month = digits(from + 4, 2);
+            int day = digits(from + 6, 2);
+            if(year < 0 || month < 1 || month > 12 || day < 1 || day > LocalDate.of(year, month, 1).lengthOfMonth()){
+                return Long.MIN_VALUE;
+            }
+            long result = (year * 10_000L + month * 100 + day) * 1_000_000L;
+            if(date){
+                return result;
+            }
+
+            int hour = digits(from + 9, 2);
+            int minute = digits(from + 11, 2);
+            int second = digits(from + 13, 2);
+            if(hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60){
+                return Long.MIN_VALUE;
+            }
+            return result + hour * 10_000L + minute * 100 + second;
+        }
+
+        /**
+         * Parses decimal digits of the current line
+         *
+         * @param from The first digit
+         * @param count The number of digits
+         * @return The number or {@code -1} when not all are digits
+         */
+        private int digits(int from, int count){
+            int result = 0;
+            for(int i = from; i < from + count; i++){
+                if(line[i] < '0' || line[i] > '9'){
+                    return -1;
+                }
+                result = result * 10 + (line[i] - '0');
+            }
+            return result;
+        }
+
+        /**
+         * Checks whether the current line is the property (the name is followed by parameters or the value)
+         *
+         * @param name The property name
+         * @param length The line length
+         * @return {@code true} when it is, {@code false} otherwise
+         */
+        private boolean isProperty(String name, int length){
+            if(length <= name.length() || (line[name.length()] != ':' && line[name.length()] != ';')){
+                return false;
+            }
+            for(int i = 0; i < name.length(); i++){
+                if(line[i] != name.charAt(i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether a range of the current line contains the ASCII text
+         *
+         * @param text The text
+         * @param from The range start (inclusive)
+         * @param to The range end (exclusive)
+         * @return {@code true} when it does, {@code false} otherwise
+         */
+        private boolean contains(String text, int from, int to){
+            outer:
+            for(int i = from; i <= to - text.length(); i++){
+                for(int j = 0; j < text.length(); j++){
+                    if(line[i + j] != text.charAt(j)){
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Extracts the value of the current line (after the first colon, trimmed)
+         *
+         * @param length The line length
+         * @return The value
+         */
+        private String value(int length){
+            for(int i = 0; i < length; i++){
+                if(line[i] == ':'){
+                    return new String(line, i + 1, length - i - 1, StandardCharsets.UTF_8).trim();
+                }
+            }
+            return "";
+        }
+
+        /**
+         * Records a problem
+         *
+         * @param line The line number
+         * @param message The problem description
+         */
+        private void problem(long line, String message){
+            problemCount++;
+            if(problems.size() < MAX_PROBLEMS){
+                problems.add(new Problem(line, message));
+            }
+        }
+
+        /**
+         * Appends the summary of the directly following part
+         *
+         * @param next The summary of the following part
+         */
+        private void combine(Summary next){
+            long offset = lines;
+
+            //Match the ends of the next part against the blocks left open
+            for(Block end : next.unmatched){
+                end.line += offset;
+                if(open.isEmpty()){
+                    unmatched.add(end);
+                }else{
+                    Block begin = open.remove(open.size() - 1);
+                    if(!begin.name.equals(end.name)){
+                        problem(end.line, "END:" + end.name + " does not match BEGIN:" + begin.name + " at line " + begin.line);
+                    }
+                }
+            }
+            for(Block begin : next.open){
+                begin.line += offset;
+                open.add(begin);
+            }
+
+            //Add up the rest
+            for(Problem p : next.problems){
+                if(problems.size() < MAX_PROBLEMS){
+                    p.line += offset;
+                    problems.add(p);
+                }
+            }
+            problemCount += next.problemCount;
+            lines += next.lines;
+            events += next.events;
+            firstStart = Math.min(firstStart, next.firstStart);
+            lastStart = Math.max(lastStart, next.lastStart);
+            prodid |= next.prodid;
+            version |= next.version;
+        }
+
+        /**
+         * Completes the checks of the whole file and creates its report
+         *
+         * @param file The file
+         * @return The report
+         */
+        private Report toReport(Path file){
+            unmatched.forEach(b -> problem(b.line, "END:" + b.name + " has no BEGIN"));
+            open.forEach(b -> problem(b.line, "BEGIN:" + b.name + " is never closed"));
+            if(lines == 0) problem(0, "The file is empty");
+            if(!prodid) problem(0, "The calendar has no PRODID");
+            if(!version) problem(0, "The calendar has no VERSION");
+
+            return new Report(
+                    file,
+                    lines,
+                    events,
+                    (events > 0) ? formatTimestamp(firstStart) : null,
+                    (events > 0) ? formatTimestamp(lastStart) : null,
+                    problemCount,
+                    problems.stream().map(Problem::toString).collect(Collectors.toList()));
+        }
+
+        /**
+         * Formats a {@code yyyyMMddHHmmss} timestamp for display
+         *
+         * @param timestamp The timestamp
+         * @return The formatted timestamp
+         */
+        private static String formatTimestamp(long timestamp){
+            String s = String.format("%014d", timestamp);
+            return s.substring(0, 4) + "-" + s.substring(4, 6) + "-" + s.substring(6, 8) + " "
+                    + s.substring(8, 10) + ":" + s.substring(10, 12) + ":" + s.substring(12, 14);
+        }
+    }
+}
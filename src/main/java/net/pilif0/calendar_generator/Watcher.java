@@ -0,0 +1,239 @@
+package net.pilif0.calendar_generator;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps the calendars built from the series definitions in a directory up to date as the definitions change
+ * <p>
+ * Each calendar is written to the output directory as {@code name.ics} and is made of the rendered event blocks of
+ * the definitions naming it. The blocks are cached per definition, so when a definition changes only its blocks are
+ * rendered again and the affected calendars are rewritten from the cached blocks of the others. Calendars are written
+ * to a temporary file first and moved in place, so readers never see a partial calendar.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class Watcher implements AutoCloseable {
+    /** The time to wait for related changes after the first one (milliseconds) */
+    private static final long SETTLE_DELAY = 200;
+    /** The extension of the written calendars */
+    private static final String EXTENSION = ".ics";
+
+    /**
+     * Represents the rendered event blocks of a definition
+     */
+    private static class Rendered {
+        /** The definition */
+        private final SeriesSpec spec;
+        /** The event blocks */
+        private final List<String> entries;
+
+        /**
+         * Constructs the rendered definition from its information
+         */
+        private Rendered(SeriesSpec spec, List<String> entries) {
+            this.spec = spec;
+            this.entries = entries;
+        }
+    }
+
+    /** The directory of the definitions */
+    public final Path specDir;
+    /** The directory of the written calendars */
+    public final Path outDir;
+    /** The watch service of the definition directory ({@code null} until watching) */
+    private WatchService watcher;
+    /** The rendered definitions by file */
+    private final Map<Path, Rendered> rendered = new HashMap<>();
+    /** The definition files of each calendar (by calendar name) */
+    private final Map<String, SortedSet<Path>> calendars = new TreeMap<>();
+
+    /**
+     * Prepares the watcher (the definition directory is watched only once running)
+     *
+     * @param specDir The directory of the definitions
+     * @param outDir The directory of the written calendars (created when missing)
+     * @throws IOException When the output directory could not be created
+     */
+    public Watcher(Path specDir, Path outDir) throws IOException {
+        if(!Files.isDirectory(specDir)){
+            throw new IllegalArgumentException("The series directory is not a directory.");
+        }
+
+        this.specDir = specDir.toAbsolutePath();
+        this.outDir = outDir.toAbsolutePath();
+        Files.createDirectories(this.outDir);
+    }
+
+    /**
+     * Renders all definitions and writes all calendars
+     *
+     * @throws IOException When the definitions could not be listed
+     */
+    public void writeAll() throws IOException {
+        update(SeriesSpec.list(specDir));
+    }
+
+    /**
+     * Writes all calendars, then watches the definitions and updates the calendars until interrupted or closed
+     *
+     * @throws IOException When the definitions could not be watched or listed
+     */
+    public void run() throws IOException {
+        //Start watching before the first write, so no change is missed
+        watcher = FileSystems.getDefault().newWatchService();
+        specDir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        writeAll();
+
+        try {
+            while(true){
+                //Wait for a change and let related changes settle
+                WatchKey key = watcher.take();
+                Thread.sleep(SETTLE_DELAY);
+
+                //Collect the changed definitions
+                Set<Path> changed = new TreeSet<>();
+                boolean overflow = false;
+                do {
+                    for(WatchEvent<?> event : key.pollEvents()){
+                        if(event.kind() == OVERFLOW){
+                            overflow = true;
+                        }else{
+                            Path file = specDir.resolve((Path) event.context());
+                            if(file.getFileName().toString().endsWith(SeriesSpec.EXTENSION)){
+                                changed.add(file);
+                            }
+                        }
+                    }
+                    if(!key.reset()){
+                        System.out.printf("[ERROR] Series directory \'%s\' is no longer watched.\n", specDir);
+                        return;
+                    }
+                } while((key = watcher.poll()) != null);
+
+                //Case: changes were lost, check every definition
+                if(overflow){
+                    changed.addAll(rendered.keySet());
+                    changed.addAll(SeriesSpec.list(specDir));
+                }
+
+                if(!changed.isEmpty()){
+                    update(changed);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //Stop watching
+        }
+    }
+
+    /**
+     * Renders the changed definitions again and rewrites the calendars they belong (or belonged) to
+     *
+     * @param changed The changed definition files (including removed ones)
+     */
+    public void update(Collection<Path> changed){
+        Set<String> affected = new TreeSet<>();
+
+        for(Path file : changed){
+            //Forget the old rendering
+            Rendered old = rendered.remove(file);
+            if(old != null){
+                affected.add(old.spec.calendar);
+                calendars.get(old.spec.calendar).remove(file);
+            }
+
+            //Render the current definition (unless removed or unreadable)
+            if(!Files.exists(file)){
+                continue;
+            }
+            try {
+                SeriesSpec spec = SeriesSpec.load(file);
+                List<String> entries = new ArrayList<>();
+                spec.toEvents().forEach(e -> entries.add(e.toEntry()));
+
+                rendered.put(file, new Rendered(spec, entries));
+                calendars.computeIfAbsent(spec.calendar, c -> new TreeSet<>()).add(file);
+                affected.add(spec.calendar);
+            } catch (IllegalArgumentException e) {
+                System.out.printf("[ERROR] Series \'%s\' skipped: %s\n", file.getFileName(), e.getMessage());
+            }
+        }
+
+        //DEBUG: print update note
+        if(Main.debug){
+            System.out.printf("[DEBUG] Rendered %d changed series, rewriting calendar(s) %s\n", changed.size(), affected);
+        }
+
+        affected.forEach(this::write);
+    }
+
+    /**
+     * Writes the calendar from the cached blocks of its definitions (removes it when it has none)
+     *
+     * @param name The calendar name
+     */
+    private void write(String name){
+        Path target = outDir.resolve(name + EXTENSION);
+        SortedSet<Path> files = calendars.getOrDefault(name, Collections.emptySortedSet());
+
+        try {
+            //Case: no definitions left
+            if(files.isEmpty()){
+                calendars.remove(name);
+                Files.deleteIfExists(target);
+                System.out.printf("Removed calendar \'%s\'\n", target);
+                return;
+            }
+
+            //Put the blocks together in a temporary file
+            Path temporary = outDir.resolve("." + name + EXTENSION + ".tmp");
+            Calendar cal = Calendar.empty(temporary, rendered.get(files.first()).spec.template.zone.zone, name);
+            for(Path file : files){
+                Rendered r = rendered.get(file);
+                if(r.spec.template.localTime){
+                    cal.addTimezone(r.spec.template.zone);
+                }
+                r.entries.forEach(cal::addEntry);
+            }
+            if(!cal.save()){
+                return;
+            }
+
+            //Replace the calendar
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.printf("Wrote calendar \'%s\' (%d series)\n", target, files.size());
+        } catch (IOException e) {
+            System.out.printf("[ERROR] Calendar \'%s\' could not be written (%s).\n", target, e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Stops watching the definition directory
+     *
+     * @throws IOException When the watch service could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if(watcher != null){
+            watcher.close();
+        }
+    }
+
+    /**
+     * Watches the directory until the process is stopped
+     *
+     * @param specDir The directory of the definitions
+     * @param outDir The directory of the written calendars
+     * @throws IOException When the directories could not be watched or created
+     */
+    public static void watch(String specDir, String outDir) throws IOException {
+        try (Watcher w = new Watcher(Paths.get(specDir), Paths.get(outDir))) {
+            System.out.printf("Watching \'%s\', writing calendars to \'%s\'\n", w.specDir, w.outDir);
+            w.run();
+        }
+    }
+}
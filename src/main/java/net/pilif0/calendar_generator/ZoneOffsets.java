@@ -0,0 +1,336 @@
+package net.pilif0.calendar_generator;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a time zone with its offset transitions precomputed over a window of dates
+ * <p>
+ * Within the window a local datetime is converted by a binary search over the transitions (usually just two a year)
+ * instead of a full {@code ZoneRules} lookup. Outside the window the zone rules are used.
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class ZoneOffsets {
+    /** The local datetime formatter of the time zone definition */
+    public static final DateTimeFormatter LOCAL_DATETIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    /** The system default time zone without a window (always uses the zone rules) */
+    public static final ZoneOffsets SYSTEM = new ZoneOffsets(ZoneId.systemDefault(), LocalDate.MAX, LocalDate.MIN);
+
+    /** The time zone */
+    public final ZoneId zone;
+    /** The window start date (inclusive) */
+    public final LocalDate from;
+    /** The window end date (exclusive) */
+    public final LocalDate to;
+    /** The zone rules */
+    private final ZoneRules rules;
+    /** The transitions in the window */
+    private final ZoneOffsetTransition[] transitions;
+    /** The local epoch seconds from which each transition applies */
+    private final long[] boundaries;
+    /** The offsets ({@code i}-th applies before the {@code i}-th boundary, last applies after the last boundary) */
+    private final ZoneOffset[] offsets;
+    /** The local epoch second of the window start */
+    private final long windowStart;
+    /** The local epoch second of the window end */
+    private final long windowEnd;
+
+    /**
+     * Precomputes the offset transitions of the time zone in the window
+     *
+     * @param zone The time zone
+     * @param from The window start date (inclusive)
+     * @param to The window end date (exclusive)
+     */
+    private ZoneOffsets(ZoneId zone, LocalDate from, LocalDate to){
+        this.zone = zone;
+        this.from = from;
+        this.to = to;
+        this.rules = zone.getRules();
+
+        //Case: empty window, nothing to precompute
+        if(!from.isBefore(to)){
+            transitions = new ZoneOffsetTransition[0];
+            boundaries = new long[0];
+            offsets = new ZoneOffset[0];
+            windowStart = 0;
+            windowEnd = 0;
+            return;
+        }
+
+        //Find the window bounds (extended by a day to cover any offset)
+        windowStart = from.minusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        windowEnd = to.plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        Instant start = Instant.ofEpochSecond(windowStart).minusSeconds(ZoneOffset.MAX.getTotalSeconds());
+        Instant end = Instant.ofEpochSecond(windowEnd).plusSeconds(ZoneOffset.MAX.getTotalSeconds());
+
+        //Collect the transitions in the window
+        List<ZoneOffsetTransition> found = new ArrayList<>();
+        ZoneOffsetTransition t = rules.nextTransition(start);
+        while(t != null && t.getInstant().isBefore(end)){
+            found.add(t);
+            t = rules.nextTransition(t.getInstant());
+        }
+        transitions = found.toArray(new ZoneOffsetTransition[0]);
+
+        //Tabulate the offsets
+        //  In a gap the earlier offset is kept until the end of the gap (the local time is shifted forward)
+        //  In an overlap the earlier offset is kept until the end of the overlap
+        boundaries = new long[transitions.length];
+        offsets = new ZoneOffset[transitions.length + 1];
+        offsets[0] = rules.getOffset(start);
+        for(int i = 0; i < transitions.length; i++){
+            LocalDateTime before = transitions[i].getDateTimeBefore();
+            LocalDateTime after = transitions[i].getDateTimeAfter();
+            boundaries[i] = (before.isAfter(after) ? before : after).toEpochSecond(ZoneOffset.UTC);
+            offsets[i + 1] = transitions[i].getOffsetAfter();
+        }
+
+        //DEBUG: print the table size
+        if(Main.debug){
+            System.out.printf("[DEBUG] Precomputed %d offset transition(s) of \'%s\' between %s and %s\n",
+                    transitions.length, zone, from, to);
+        }
+    }
+
+    /**
+     * Precomputes the offset transitions of the time zone in the window
+     *
+     * @param zone The time zone
+     * @param from The window start date (inclusive)
+     * @param to The window end date (exclusive)
+     * @return The time zone with the precomputed transitions
+     */
+    public static ZoneOffsets of(ZoneId zone, LocalDate from, LocalDate to){
+        return new ZoneOffsets(zone, from, to);
+    }
+
+    /**
+     * Finds the window covered by an iCalendar definition of the time zone
+     * <p>
+     * The window goes from the day after the first observance to the next transition after the last one (a correct
+     * definition is only used until then).
+     *
+     * @param zone The time zone
+     * @param definition The iCalendar time zone definition
+     * @return The time zone with the covered window (empty when there are no readable observances)
+     */
+    public static ZoneOffsets ofDefinition(ZoneId zone, String definition){
+        List<LocalDateTime> starts = observanceStarts(definition);
+        if(starts.isEmpty()){
+            return of(zone, LocalDate.MAX, LocalDate.MIN);
+        }
+
+        LocalDateTime last = Collections.max(starts);
+        ZoneOffsetTransition next = zone.getRules().nextTransition(last.atZone(zone).toInstant());
+        return of(zone,
+                Collections.min(starts).toLocalDate().plusDays(1),
+                (next != null) ? next.getDateTimeBefore().toLocalDate() : last.toLocalDate().plusDays(1));
+    }
+
+    /**
+     * Checks whether an iCalendar definition of the time zone covers the window (it starts by the window start and
+     * has an observance for each transition from its start to the window end)
+     *
+     * @param definition The iCalendar time zone definition
+     * @return {@code true} when it covers the window, {@code false} otherwise
+     */
+    public boolean isCoveredBy(String definition){
+        //Case: empty window, any definition will do
+        if(!from.isBefore(to)){
+            return true;
+        }
+
+        List<LocalDateTime> starts = observanceStarts(definition);
+        if(starts.isEmpty()){
+            return false;
+        }
+        LocalDateTime first = Collections.min(starts);
+        if(first.isAfter(from.atStartOfDay())){
+            return false;
+        }
+
+        //Check the transitions up to the window end are all defined
+        Instant end = Instant.ofEpochSecond(windowEnd).plusSeconds(ZoneOffset.MAX.getTotalSeconds());
+        ZoneOffsetTransition t = rules.nextTransition(first.atZone(zone).toInstant());
+        while(t != null && t.getInstant().isBefore(end)){
+            if(!starts.contains(t.getDateTimeBefore())){
+                return false;
+            }
+            t = rules.nextTransition(t.getInstant());
+        }
+        return true;
+    }
+
+    /**
+     * Reads the local start datetimes of the observances of an iCalendar time zone definition
+     *
+     * @param definition The iCalendar time zone definition
+     * @return The readable start datetimes
+     */
+    private static List<LocalDateTime> observanceStarts(String definition){
+        List<LocalDateTime> result = new ArrayList<>();
+        for(String line : definition.split("\r?\n")){
+            if(line.startsWith("DTSTART")){
+                try {
+                    result.add(LocalDateTime.parse(line.substring(line.lastIndexOf(':') + 1).trim(), LOCAL_DATETIME_FORMAT));
+                } catch (DateTimeParseException e) {
+                    //Skip observances in other forms
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the time zone with the window covering both this and the other window
+     *
+     * @param other The other time zone (has to be the same zone)
+     * @return The time zone with the combined window
+     */
+    public ZoneOffsets merge(ZoneOffsets other){
+        //Check the zones match
+        if(!zone.equals(other.zone)){
+            throw new IllegalArgumentException("Only windows of the same time zone can be merged.");
+        }
+
+        //Case: one window covers the other
+        if(covers(other)){
+            return this;
+        }
+        if(other.covers(this)){
+            return other;
+        }
+
+        //Case: combine the windows
+        return of(zone,
+                from.isBefore(other.from) ? from : other.from,
+                to.isAfter(other.to) ? to : other.to);
+    }
+
+    /**
+     * Checks whether this window covers the other window
+     *
+     * @param other The other time zone
+     * @return {@code true} when this window covers the other, {@code false} otherwise
+     */
+    private boolean covers(ZoneOffsets other){
+        return !other.from.isBefore(other.to)
+                || (!other.from.isBefore(from) && !other.to.isAfter(to));
+    }
+
+    /**
+     * Finds the offset of a local datetime
+     *
+     * @param datetime The local datetime
+     * @return The offset
+     */
+    public ZoneOffset offsetOf(LocalDateTime datetime){
+        long local = datetime.toEpochSecond(ZoneOffset.UTC);
+
+        //Case: outside the window, use the rules
+        if(local < windowStart || local >= windowEnd){
+            return datetime.atZone(zone).getOffset();
+        }
+
+        //Case: inside the window, find the number of boundaries at or before the datetime
+        int i = Arrays.binarySearch(boundaries, local);
+        i = (i >= 0) ? i + 1 : -(i + 1);
+        return offsets[i];
+    }
+
+    /**
+     * Converts a local datetime to UTC
+     *
+     * @param datetime The local datetime
+     * @return The UTC datetime
+     */
+    public LocalDateTime toUtc(LocalDateTime datetime){
+        return datetime.minusSeconds(offsetOf(datetime).getTotalSeconds());
+    }
+
+    /**
+     * Generates the iCalendar time zone definition covering the window
+     *
+     * @return The iCalendar time zone definition
+     */
+    public String toDefinition(){
+        StringBuilder result = new StringBuilder();
+
+        result.append("BEGIN:VTIMEZONE").append(System.lineSeparator())
+                .append("TZID:").append(zone.getId()).append(System.lineSeparator());
+
+        //Add the offset in effect at the window start
+        LocalDateTime start = (from.isBefore(to) ? from.minusDays(1) : LocalDate.of(1970, 1, 1)).atStartOfDay();
+        ZoneOffset initial = (offsets.length > 0) ? offsets[0] : rules.getOffset(start.atZone(zone).toInstant());
+        appendObservance(result,
+                rules.isDaylightSavings(start.atZone(zone).toInstant()),
+                start,
+                initial,
+                initial);
+
+        //Add each transition in the window
+        for(ZoneOffsetTransition t : transitions){
+            appendObservance(result,
+                    rules.isDaylightSavings(t.getInstant()),
+                    t.getDateTimeBefore(),
+                    t.getOffsetBefore(),
+                    t.getOffsetAfter());
+        }
+
+        result.append("END:VTIMEZONE");
+
+        return result.toString();
+    }
+
+    /**
+     * Appends a single observance to the time zone definition
+     *
+     * @param result The time zone definition
+     * @param daylight Whether the observance is daylight saving time
+     * @param start The local start of the observance (in the offset before)
+     * @param offsetFrom The offset before the observance
+     * @param offsetTo The offset in the observance
+     */
+    private static void appendObservance(StringBuilder result,
+                                         boolean daylight,
+                                         LocalDateTime start,
+                                         ZoneOffset offsetFrom,
+                                         ZoneOffset offsetTo){
+        String type = daylight ? "DAYLIGHT" : "STANDARD";
+        result.append("BEGIN:").append(type).append(System.lineSeparator())
+                .append("DTSTART:").append(start.format(LOCAL_DATETIME_FORMAT)).append(System.lineSeparator())
+                .append("TZOFFSETFROM:").append(formatOffset(offsetFrom)).append(System.lineSeparator())
+                .append("TZOFFSETTO:").append(formatOffset(offsetTo)).append(System.lineSeparator())
+                .append("END:").append(type).append(System.lineSeparator());
+    }
+
+    /**
+     * Formats an offset for printing into the iCalendar file ({@code +hhmm} or {@code +hhmmss})
+     *
+     * @param offset The offset
+     * @return The formatted String
+     */
+    private static String formatOffset(ZoneOffset offset){
+        int total = offset.getTotalSeconds();
+        int abs = Math.abs(total);
+        String result = String.format("%s%02d%02d", (total < 0) ? "-" : "+", abs / 3600, (abs / 60) % 60);
+        if(abs % 60 != 0){
+            result += String.format("%02d", abs % 60);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package net.pilif0.calendar_generator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the feed server renders each version once and answers conditional requests
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class FeedServerTest {
+    /** The number of concurrent requests */
+    private static final int REQUESTS = 32;
+    /** The series definition (the title is replaced to change it) */
+    private static final String DEFINITION = "calendar=timetable\n" +
+            "title=%s\n" +
+            "start=2017-03-20\n" +
+            "startTime=10:00\n" +
+            "endTime=11:00\n" +
+            "zone=Europe/London\n" +
+            "repeat=MO,WE\n" +
+            "repeatTo=2017-06-01\n";
+
+    /** The directory of the definitions */
+    private Path dir;
+    /** The definition file */
+    private Path file;
+    /** The server */
+    private FeedServer server;
+
+    /**
+     * Starts a server over a directory with a single definition
+     */
+    @Before
+    public void start() throws IOException {
+        dir = Files.createTempDirectory("feed");
+        file = dir.resolve("lecture" + SeriesSpec.EXTENSION);
+        Files.write(file, String.format(DEFINITION, "Lecture").getBytes(StandardCharsets.UTF_8));
+        server = new FeedServer(dir, 0, FeedServer.DEFAULT_CACHE_SIZE);
+        server.start();
+    }
+
+    /**
+     * Stops the server and removes the directory
+     */
+    @After
+    public void stop() throws IOException {
+        server.stop();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * Sends a request for the calendar
+     *
+     * @param etag The entity tag to send as {@code If-None-Match} ({@code null} for none)
+     * @return The connection with the response
+     */
+    private HttpURLConnection request(String etag) throws IOException {
+        URL url = new URL("http://localhost:" + server.getPort() + "/timetable.ics");
+        HttpURLConnection result = (HttpURLConnection) url.openConnection();
+        if(etag != null){
+            result.setRequestProperty("If-None-Match", etag);
+        }
+        if(result.getResponseCode() == 200){
+            try (InputStream in = result.getInputStream()) {
+                while(in.read() != -1){
+                    //Read the whole body
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks concurrent requests for the same version share a single rendering
+     */
+    @Test
+    public void rendersOnceForConcurrentRequests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+        try {
+            CountDownLatch ready = new CountDownLatch(1);
+            List<Future<String>> responses = new ArrayList<>();
+            for(int i = 0; i < REQUESTS; i++){
+                responses.add(executor.submit(() -> {
+                    ready.await();
+                    HttpURLConnection c = request(null);
+                    assertEquals(200, c.getResponseCode());
+                    return c.getHeaderField("ETag");
+                }));
+            }
+            ready.countDown();
+
+            Set<String> etags = new HashSet<>();
+            for(Future<String> response : responses){
+                etags.add(response.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals(1, etags.size());
+            assertEquals(1, server.getRenderings());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks the entity tag round trip, including a change the modification time does not show
+     */
+    @Test
+    public void answersNotModifiedUntilChanged() throws Exception {
+        HttpURLConnection first = request(null);
+        assertEquals(200, first.getResponseCode());
+        String etag = first.getHeaderField("ETag");
+        assertNotNull(etag);
+
+        //Case: unchanged, not modified without rendering again
+        assertEquals(304, request(etag).getResponseCode());
+        assertEquals(1, server.getRenderings());
+
+        //Case: changed contents of the same size under the same modification time
+        FileTime modified = Files.getLastModifiedTime(file);
+        Files.write(file, String.format(DEFINITION, "Seminar").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, modified);
+        Thread.sleep(1100);
+
+        HttpURLConnection changed = request(etag);
+        assertEquals(200, changed.getResponseCode());
+        assertNotEquals(etag, changed.getHeaderField("ETag"));
+        assertEquals(304, request(changed.getHeaderField("ETag")).getResponseCode());
+    }
+}
@@ -0,0 +1,186 @@
+package net.pilif0.calendar_generator;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the period stepping of {@code Recurrence} against a day by day reference
+ *
+ * @author Filip Smola
+ * @version 1.0
+ */
+public class RecurrenceTest {
+    /** The number of random patterns compared with the reference */
+    private static final int PATTERNS = 20000;
+    /** The possible day ordinals */
+    private static final int[] ORDINALS = {1, 2, 3, 4, 5, Recurrence.LAST};
+
+    /**
+     * Checks whether the pattern matches the date by testing the date alone (no stepping)
+     *
+     * @param r The recurrence
+     * @param days The selected days of the week (Monday first)
+     * @param date The date
+     * @return {@code true} when it matches, {@code false} otherwise
+     */
+    private static boolean reference(Recurrence r, boolean[] days, LocalDate date){
+        //Case: every interval-th week on the selected days
+        if(r.frequency == Recurrence.Frequency.WEEKLY){
+            LocalDate anchor = r.from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            long weeks = ChronoUnit.WEEKS.between(anchor, date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)));
+            return weeks % r.interval == 0 && days[date.getDayOfWeek().getValue() - 1];
+        }
+
+        //Check the period is used (and the month when yearly)
+        long periods = (r.frequency == Recurrence.Frequency.MONTHLY)
+                ? ChronoUnit.MONTHS.between(r.from.withDayOfMonth(1), date.withDayOfMonth(1))
+                : ChronoUnit.YEARS.between(r.from.withDayOfYear(1), date.withDayOfYear(1));
+        if(periods % r.interval != 0){
+            return false;
+        }
+        if(r.frequency == Recurrence.Frequency.YEARLY && date.getMonth() != r.from.getMonth()){
+            return false;
+        }
+
+        //Case: the day of the month of the start date
+        boolean anyDay = false;
+        for(boolean day : days){
+            anyDay |= day;
+        }
+        if(!anyDay){
+            return date.getDayOfMonth() == r.from.getDayOfMonth();
+        }
+
+        //Case: the n-th (or last) selected day of the week in the month
+        if(!days[date.getDayOfWeek().getValue() - 1]){
+            return false;
+        }
+        int nth = (date.getDayOfMonth() - 1) / 7 + 1;
+        boolean last = date.plusWeeks(1).getMonth() != date.getMonth();
+        return (r.ordinal == Recurrence.LAST) ? last : nth == r.ordinal;
+    }
+
+    /**
+     * Compares the occurrences and excluded occurrences of random patterns with the reference
+     */
+    @Test
+    public void matchesReference(){
+        Random random = new Random(5);
+        for(int t = 0; t < PATTERNS; t++){
+            //Pick a random pattern
+            Recurrence.Frequency frequency = Recurrence.Frequency.values()[random.nextInt(3)];
+            boolean[] days = new boolean[Recurrence.DAY_NAMES.length];
+            int selected = random.nextInt(3);
+            for(int i = 0; i < selected; i++){
+                days[random.nextInt(days.length)] = true;
+            }
+            int ordinal = ORDINALS[random.nextInt(ORDINALS.length)];
+            LocalDate from = LocalDate.of(2016, 1, 1).plusDays(random.nextInt(1500));
+            LocalDate to = from.plusDays(random.nextInt((frequency == Recurrence.Frequency.YEARLY) ? 4000 : 800) - 5);
+            Exclusions excluded = new Exclusions();
+            excluded.add(from.plusDays(random.nextInt(100)));
+            Recurrence r = new Recurrence(frequency, 1 + random.nextInt(3), days, ordinal, from, to, excluded);
+
+            //Walk the days with the reference
+            List<LocalDate> expected = new ArrayList<>();
+            List<LocalDate> expectedExcluded = new ArrayList<>();
+            for(LocalDate d = from; !d.isAfter(r.last()); d = d.plusDays(1)){
+                if(reference(r, days, d)){
+                    (excluded.contains(d) ? expectedExcluded : expected).add(d);
+                }
+            }
+
+            String pattern = r.toRule() + " from " + from + " to " + to;
+            assertEquals(pattern, expected, r.occurrences());
+            assertEquals(pattern, expectedExcluded, r.excludedOccurrences());
+        }
+    }
+
+    /**
+     * Checks the next occurrence search skips unused periods and stops at the end
+     */
+    @Test
+    public void nextSkipsUnusedPeriods(){
+        //Last Friday of every other month from January 2024
+        boolean[] friday = new boolean[Recurrence.DAY_NAMES.length];
+        friday[4] = true;
+        Recurrence r = new Recurrence(Recurrence.Frequency.MONTHLY, 2, friday, Recurrence.LAST,
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 6, 1), new Exclusions());
+
+        assertEquals(LocalDate.of(2024, 1, 26), r.first());
+        assertEquals(LocalDate.of(2024, 3, 29), r.next(LocalDate.of(2024, 1, 27)));
+        assertEquals(LocalDate.of(2024, 5, 31), r.next(LocalDate.of(2024, 3, 30)));
+        assertNull(r.next(LocalDate.of(2024, 6, 1)));
+    }
+
+    /**
+     * Checks months without the day of the start date are skipped
+     */
+    @Test
+    public void monthlySkipsShortMonths(){
+        Recurrence r = new Recurrence(Recurrence.Frequency.MONTHLY, 1, new boolean[Recurrence.DAY_NAMES.length], 1,
+                LocalDate.of(2024, 1, 31), LocalDate.of(2024, 6, 1), new Exclusions());
+
+        assertEquals(Arrays.asList(LocalDate.of(2024, 1, 31), LocalDate.of(2024, 3, 31), LocalDate.of(2024, 5, 31)),
+                r.occurrences());
+    }
+
+    /**
+     * Checks a pattern without a matching date has no occurrences
+     */
+    @Test
+    public void noOccurrences(){
+        //Fifth Monday in February 2024 (there are four)
+        boolean[] monday = new boolean[Recurrence.DAY_NAMES.length];
+        monday[0] = true;
+        Recurrence r = new Recurrence(Recurrence.Frequency.MONTHLY, 1, monday, 5,
+                LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 20), new Exclusions());
+
+        assertNull(r.first());
+        assertTrue(r.occurrences().isEmpty());
+    }
+
+    /**
+     * Checks the generated repetition rules
+     */
+    @Test
+    public void toRule(){
+        boolean[] tuesday = new boolean[Recurrence.DAY_NAMES.length];
+        tuesday[1] = true;
+        boolean[] friday = new boolean[Recurrence.DAY_NAMES.length];
+        friday[4] = true;
+        boolean[] mondayWednesday = new boolean[Recurrence.DAY_NAMES.length];
+        mondayWednesday[0] = mondayWednesday[2] = true;
+        LocalDate to = LocalDate.of(2030, 6, 1);
+
+        assertEquals("FREQ=MONTHLY;BYDAY=2TU", new Recurrence(Recurrence.Frequency.MONTHLY, 1, tuesday, 2,
+                LocalDate.of(2024, 1, 1), to, new Exclusions()).toRule());
+        assertEquals("FREQ=YEARLY;INTERVAL=2;BYMONTH=3;BYDAY=-1FR", new Recurrence(Recurrence.Frequency.YEARLY, 2, friday,
+                Recurrence.LAST, LocalDate.of(2024, 3, 1), to, new Exclusions()).toRule());
+        assertEquals("FREQ=MONTHLY;INTERVAL=3;BYMONTHDAY=31", new Recurrence(Recurrence.Frequency.MONTHLY, 3,
+                new boolean[Recurrence.DAY_NAMES.length], 1, LocalDate.of(2024, 1, 31), to, new Exclusions()).toRule());
+        assertEquals("FREQ=WEEKLY;BYDAY=MO,WE", new Recurrence(mondayWednesday,
+                LocalDate.of(2024, 1, 31), to, new Exclusions()).toRule());
+        assertEquals("FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE", new Recurrence(Recurrence.Frequency.WEEKLY, 2, mondayWednesday,
+                1, LocalDate.of(2024, 1, 31), to, new Exclusions()).toRule());
+    }
+
+    /**
+     * Checks invalid intervals and ordinals are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroInterval(){
+        new Recurrence(Recurrence.Frequency.WEEKLY, 0, new boolean[Recurrence.DAY_NAMES.length], 1,
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 2, 1), new Exclusions());
+    }
+}